@@ -0,0 +1,56 @@
+package org.fupo.javaeasyscan.benchmarks;
+
+import org.fupo.javaeasyscan.CallGraph;
+import org.fupo.javaeasyscan.Finding;
+import org.fupo.javaeasyscan.ProjectIndex;
+import org.fupo.javaeasyscan.ScanExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Describe findUsages往上跟进调用链的耗时，调用链深度分别为1、5、20、100
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 15:58 2024/6/24
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallChainBenchmark {
+
+    @Param({"1", "5", "20", "100"})
+    public int depth;
+
+    private File fixtureDir;
+    private CallGraph callGraph;
+
+    @Setup
+    public void setUp() throws Exception {
+        ScanExecutor.setThreads(1);
+        fixtureDir = Fixtures.writeCallChain(depth);
+        callGraph = ProjectIndex.build(fixtureDir).getCallGraph();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(fixtureDir);
+    }
+
+    @Benchmark
+    public List<Finding.ChainStep> findUsages() {
+        List<Finding.ChainStep> callChain = new ArrayList<>();
+        callGraph.findUsages("Level0", "call0", new HashSet<>(), callChain);
+        if (callChain.size() != depth) {
+            throw new IllegalStateException("Expected " + depth + " steps but got " + callChain.size());
+        }
+        return callChain;
+    }
+}
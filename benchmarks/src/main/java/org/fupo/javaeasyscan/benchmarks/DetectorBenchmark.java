@@ -0,0 +1,68 @@
+package org.fupo.javaeasyscan.benchmarks;
+
+import org.fupo.javaeasyscan.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * @Describe 各模块规则在固定样例上的耗时，语法树在setup里已经解析好，只测遍历和规则本身
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 15:44 2024/6/24
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DetectorBenchmark {
+
+    @Param({"commandInject", "groovyShell", "fastJson", "sqlSplit"})
+    public String module;
+
+    @Param({"100"})
+    public int files;
+
+    private File fixtureDir;
+    private ProjectIndex index;
+    private List<Supplier<Detector>> detectors;
+
+    @Setup
+    public void setUp() throws Exception {
+        ScanExecutor.setThreads(1);
+        fixtureDir = Fixtures.writeModule(module, files);
+        index = ProjectIndex.build(fixtureDir);
+        detectors = Collections.singletonList(detector(module));
+        // 先扫一遍，把所有文件都解析好
+        ScanEngine.scan(index, detectors);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(fixtureDir);
+    }
+
+    @Benchmark
+    public ScanEngine.ScanResult scan() {
+        return ScanEngine.scan(index, detectors);
+    }
+
+    private static Supplier<Detector> detector(String module) {
+        switch (module) {
+            case "commandInject":
+                return CommandInjectScan::newDetector;
+            case "groovyShell":
+                return GroovyShellScan::newDetector;
+            case "fastJson":
+                return DeserializationFastJsonScan::newDetector;
+            default:
+                return SQLInjecSplitScan::newDetector;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.fupo.javaeasyscan.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * @Describe 基准测试用的固定样例：各模块的漏洞写法、指定深度的调用链、指定条数的Mapper XML，都写到临时目录里
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 15:12 2024/6/24
+ **/
+public class Fixtures {
+
+    // 每个模块一种写法，覆盖各个规则会命中的节点
+    static final String COMMAND_INJECT = "" +
+            "package com.bench.cmd;\n" +
+            "\n" +
+            "public class CmdUtil%d {\n" +
+            "    public void runIt(String cmd) throws Exception {\n" +
+            "        Runtime.getRuntime().exec(cmd);\n" +
+            "    }\n" +
+            "\n" +
+            "    public Process build(String cmd) throws Exception {\n" +
+            "        ProcessBuilder pb = new ProcessBuilder(cmd);\n" +
+            "        return pb.start();\n" +
+            "    }\n" +
+            "}\n";
+
+    static final String GROOVY_SHELL = "" +
+            "package com.bench.groovy;\n" +
+            "\n" +
+            "import groovy.lang.GroovyShell;\n" +
+            "\n" +
+            "public class ScriptUtil%d {\n" +
+            "    public Object run(String script) {\n" +
+            "        GroovyShell shell = new GroovyShell();\n" +
+            "        Object a = shell.parse(script);\n" +
+            "        Object b = new GroovyShell().evaluate(script);\n" +
+            "        return new GroovyShell().parse(script);\n" +
+            "    }\n" +
+            "}\n";
+
+    static final String FAST_JSON = "" +
+            "package com.bench.json;\n" +
+            "\n" +
+            "import com.alibaba.fastjson.JSON;\n" +
+            "import com.alibaba.fastjson.JSONObject;\n" +
+            "\n" +
+            "public class JsonUtil%d {\n" +
+            "    public Object read(String body) {\n" +
+            "        Object a = JSON.parseObject(body);\n" +
+            "        return JSONObject.parse(body);\n" +
+            "    }\n" +
+            "}\n";
+
+    static final String SQL_SPLIT = "" +
+            "package com.bench.sql;\n" +
+            "\n" +
+            "import org.springframework.jdbc.core.JdbcTemplate;\n" +
+            "\n" +
+            "public class UserDao%d {\n" +
+            "    private JdbcTemplate jdbcTemplate;\n" +
+            "\n" +
+            "    public Object query(String id) {\n" +
+            "        String sql = \"select * from t where id = \" + id;\n" +
+            "        return jdbcTemplate.queryForList(sql);\n" +
+            "    }\n" +
+            "}\n";
+
+    static String source(String module, int i) {
+        switch (module) {
+            case "commandInject":
+                return String.format(COMMAND_INJECT, i);
+            case "groovyShell":
+                return String.format(GROOVY_SHELL, i);
+            case "fastJson":
+                return String.format(FAST_JSON, i);
+            case "sqlSplit":
+                return String.format(SQL_SPLIT, i);
+            default:
+                throw new IllegalArgumentException("Unknown module: " + module);
+        }
+    }
+
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("javaeasyscan-" + prefix).toFile();
+    }
+
+    /**
+     * 写copies份module的样例
+     */
+    static File writeModule(String module, int copies) throws IOException {
+        File dir = tempDir(module);
+        for (int i = 0; i < copies; i++) {
+            write(new File(dir, "src/" + module + "/" + className(module) + i + ".java"), source(module, i));
+        }
+        return dir;
+    }
+
+    private static String className(String module) {
+        switch (module) {
+            case "commandInject":
+                return "CmdUtil";
+            case "groovyShell":
+                return "ScriptUtil";
+            case "fastJson":
+                return "JsonUtil";
+            default:
+                return "UserDao";
+        }
+    }
+
+    /**
+     * 深度为depth的调用链：Level{depth}.call{depth}() -> ... -> Level1.call1() -> Level0.call0()
+     */
+    static File writeCallChain(int depth) throws IOException {
+        File dir = tempDir("chain");
+        write(new File(dir, "src/Level0.java"), "package com.bench.chain;\n\npublic class Level0 {\n    public void call0() {\n    }\n}\n");
+        for (int i = 1; i <= depth; i++) {
+            String source = "package com.bench.chain;\n\npublic class Level" + i + " {\n" +
+                    "    private Level" + (i - 1) + " level" + (i - 1) + ";\n\n" +
+                    "    public void call" + i + "() {\n" +
+                    "        level" + (i - 1) + ".call" + (i - 1) + "();\n" +
+                    "    }\n}\n";
+            write(new File(dir, "src/Level" + i + ".java"), source);
+        }
+        return dir;
+    }
+
+    /**
+     * statements条语句的Mapper XML，每4条里有1条是${}拼接
+     */
+    static File writeMapperXml(int statements) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<mapper namespace=\"com.bench.mapper.UserMapper\">\n");
+        for (int i = 0; i < statements; i++) {
+            String value = i % 4 == 0 ? "${name}" : "#{name}";
+            xml.append("    <select id=\"select").append(i).append("\" resultType=\"map\">\n")
+                    .append("        select * from users where name = ").append(value).append("\n")
+                    .append("    </select>\n");
+        }
+        xml.append("</mapper>\n");
+        File file = new File(tempDir("mapper"), "UserMapper.xml");
+        write(file, xml.toString());
+        return file;
+    }
+
+    static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,48 @@
+package org.fupo.javaeasyscan.benchmarks;
+
+import org.fupo.javaeasyscan.SQLInjectScan;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Describe SQLInjectScan.scanMyBatisXML解析Mapper XML的耗时
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 16:06 2024/6/24
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MyBatisXmlBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int statements;
+
+    private File xmlFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        xmlFile = Fixtures.writeMapperXml(statements);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(xmlFile.getParentFile());
+    }
+
+    @Benchmark
+    public Map<String, ?> scanMyBatisXML() throws Exception {
+        Map<String, String> namespaceToPathMap = new HashMap<>();
+        Map<String, List<SQLInjectScan.VulnerabilityDetail>> namespaceToVulnerabilitiesMap = new HashMap<>();
+        SQLInjectScan.scanMyBatisXML(xmlFile, namespaceToPathMap, namespaceToVulnerabilitiesMap);
+        return namespaceToVulnerabilitiesMap;
+    }
+}
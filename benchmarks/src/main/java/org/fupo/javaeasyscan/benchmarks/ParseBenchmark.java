@@ -0,0 +1,54 @@
+package org.fupo.javaeasyscan.benchmarks;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.Providers;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Describe 解析吞吐：和命令注入模块一样的symbolSolver配置，解析一批固定的源码
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 15:30 2024/6/24
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    private static final String[] MODULES = {"commandInject", "groovyShell", "fastJson", "sqlSplit"};
+
+    private final List<String> sources = new ArrayList<>();
+    private JavaParser javaParser;
+
+    @Setup
+    public void setUp() {
+        for (String module : MODULES) {
+            sources.add(Fixtures.source(module, 0));
+        }
+        CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
+        combinedTypeSolver.add(new ReflectionTypeSolver());
+        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(combinedTypeSolver);
+        javaParser = new JavaParser(new ParserConfiguration().setSymbolResolver(symbolSolver));
+    }
+
+    // 每次操作解析一个文件，吞吐即每秒解析的文件数
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public void parse(Blackhole blackhole) {
+        for (String source : sources) {
+            blackhole.consume(javaParser.parse(ParseStart.COMPILATION_UNIT, Providers.provider(source)));
+        }
+    }
+}
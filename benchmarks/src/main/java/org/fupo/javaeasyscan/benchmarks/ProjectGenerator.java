@@ -0,0 +1,314 @@
+package org.fupo.javaeasyscan.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * @Describe 生成Spring/MyBatis结构的模拟项目，用来做1k、10k、100k文件规模的测试
+ * 每个业务单元包含：@RestController、Service接口和Impl、Mapper接口、Mapper XML，
+ * 按比例让Mapper XML里的语句使用${}拼接，按比例在指定调用深度下埋命令执行、Groovy、Fastjson的漏洞点
+ * 同样的参数和种子生成的项目完全一样，方便对比不同版本的扫描结果和耗时
+ * 用法：java -cp benchmarks.jar org.fupo.javaeasyscan.benchmarks.ProjectGenerator --out dir [--files 1000] [--seed 42]
+ * [--sql-ratio 0.25] [--sink-ratio 0.2] [--sink-depth 3]
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:05 2024/6/25
+ **/
+public class ProjectGenerator {
+    private static final String BASE_PACKAGE = "com.example.demo";
+    private static final String[] ENTITIES = {"User", "Order", "Product", "Account", "Invoice", "Payment", "Customer", "Report", "Task", "Message"};
+    private static final String[] SINKS = {"exec", "processBuilder", "groovyShell", "parseObject"};
+    private static final String[] STATEMENTS = {"select", "insert", "update", "delete"};
+
+    private final File outDir;
+    private final int files;
+    private final double sqlRatio;
+    private final double sinkRatio;
+    private final int sinkDepth;
+    private final Random random;
+
+    private int fileCount;
+    private int sqlInjections;
+    private final int[] sinkCounts = new int[SINKS.length];
+
+    public ProjectGenerator(File outDir, int files, long seed, double sqlRatio, double sinkRatio, int sinkDepth) {
+        if (sinkDepth < 1) {
+            throw new IllegalArgumentException("sink depth must be at least 1");
+        }
+        this.outDir = outDir;
+        this.files = files;
+        this.sqlRatio = sqlRatio;
+        this.sinkRatio = sinkRatio;
+        this.sinkDepth = sinkDepth;
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        File outDir = null;
+        int files = 1000;
+        long seed = 42;
+        double sqlRatio = 0.25;
+        double sinkRatio = 0.2;
+        int sinkDepth = 3;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--out":
+                    outDir = new File(args[i + 1]);
+                    break;
+                case "--files":
+                    files = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--sql-ratio":
+                    sqlRatio = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--sink-ratio":
+                    sinkRatio = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--sink-depth":
+                    sinkDepth = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (outDir == null) {
+            System.out.println("Usage: ProjectGenerator --out dir [--files 1000] [--seed 42] [--sql-ratio 0.25] [--sink-ratio 0.2] [--sink-depth 3]");
+            return;
+        }
+        ProjectGenerator generator = new ProjectGenerator(outDir, files, seed, sqlRatio, sinkRatio, sinkDepth);
+        generator.generate();
+        System.out.println(generator.summary());
+    }
+
+    public void generate() throws IOException {
+        writePom();
+        // 一个单元一个单元地生成，直到文件数达到要求
+        for (int unit = 0; fileCount < files; unit++) {
+            writeUnit(unit);
+        }
+    }
+
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("files: ").append(fileCount).append('\n');
+        summary.append("sql injections: ").append(sqlInjections).append('\n');
+        for (int i = 0; i < SINKS.length; i++) {
+            summary.append(SINKS[i]).append(" sinks: ").append(sinkCounts[i]).append('\n');
+        }
+        return summary.toString();
+    }
+
+    private void writeUnit(int unit) throws IOException {
+        String entity = ENTITIES[random.nextInt(ENTITIES.length)] + unit;
+        String pkg = BASE_PACKAGE + ".m" + unit;
+        String field = lowerFirst(entity);
+
+        // 每个单元的四种语句各自按比例决定是否用${}
+        boolean[] injectable = new boolean[STATEMENTS.length];
+        for (int i = 0; i < STATEMENTS.length; i++) {
+            injectable[i] = random.nextDouble() < sqlRatio;
+            if (injectable[i]) {
+                sqlInjections++;
+            }
+        }
+        int sink = random.nextDouble() < sinkRatio ? random.nextInt(SINKS.length) : -1;
+
+        writeMapperXml(pkg, entity, injectable);
+        writeMapper(pkg, entity);
+        writeService(pkg, entity);
+        writeServiceImpl(pkg, entity, field);
+        writeController(pkg, entity, field, sink);
+        if (sink >= 0) {
+            sinkCounts[sink]++;
+            writeSinkChain(pkg, entity, sink);
+        }
+    }
+
+    private void writeMapperXml(String pkg, String entity, boolean[] injectable) throws IOException {
+        // 真实项目里一般有mybatis的DOCTYPE，这里不写，避免解析时去网上取DTD
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<mapper namespace=\"").append(pkg).append(".mapper.").append(entity).append("Mapper\">\n");
+        for (int i = 0; i < STATEMENTS.length; i++) {
+            String statement = STATEMENTS[i];
+            String value = injectable[i] ? "${name}" : "#{name}";
+            xml.append("    <").append(statement).append(" id=\"").append(statement).append(entity).append("\"");
+            if ("select".equals(statement)) {
+                xml.append(" resultType=\"map\"");
+            }
+            xml.append(">\n");
+            xml.append("        ").append(sql(statement, entity, value)).append('\n');
+            xml.append("    </").append(statement).append(">\n");
+        }
+        xml.append("</mapper>\n");
+        write("src/main/resources/mapper/" + entity + "Mapper.xml", xml.toString());
+    }
+
+    private static String sql(String statement, String entity, String value) {
+        String table = "t_" + entity.toLowerCase();
+        switch (statement) {
+            case "select":
+                return "select * from " + table + " where name = " + value;
+            case "insert":
+                return "insert into " + table + " (name) values (" + value + ")";
+            case "update":
+                return "update " + table + " set status = 1 where name = " + value;
+            default:
+                return "delete from " + table + " where name = " + value;
+        }
+    }
+
+    private void writeMapper(String pkg, String entity) throws IOException {
+        StringBuilder java = new StringBuilder();
+        java.append("package ").append(pkg).append(".mapper;\n\n");
+        java.append("import org.apache.ibatis.annotations.Mapper;\n\n");
+        java.append("import java.util.List;\nimport java.util.Map;\n\n");
+        java.append("@Mapper\npublic interface ").append(entity).append("Mapper {\n");
+        for (String statement : STATEMENTS) {
+            String returnType = "select".equals(statement) ? "List<Map<String, Object>>" : "int";
+            java.append("    public ").append(returnType).append(' ').append(statement).append(entity).append("(String name);\n\n");
+        }
+        java.append("}\n");
+        write(javaPath(pkg + ".mapper", entity + "Mapper"), java.toString());
+    }
+
+    private void writeService(String pkg, String entity) throws IOException {
+        StringBuilder java = new StringBuilder();
+        java.append("package ").append(pkg).append(".service;\n\n");
+        java.append("public interface ").append(entity).append("Service {\n");
+        for (String statement : STATEMENTS) {
+            java.append("    Object ").append(statement).append(entity).append("(String name);\n\n");
+        }
+        java.append("}\n");
+        write(javaPath(pkg + ".service", entity + "Service"), java.toString());
+    }
+
+    private void writeServiceImpl(String pkg, String entity, String field) throws IOException {
+        StringBuilder java = new StringBuilder();
+        java.append("package ").append(pkg).append(".service.impl;\n\n");
+        java.append("import ").append(pkg).append(".mapper.").append(entity).append("Mapper;\n");
+        java.append("import ").append(pkg).append(".service.").append(entity).append("Service;\n");
+        java.append("import org.springframework.beans.factory.annotation.Autowired;\n");
+        java.append("import org.springframework.stereotype.Service;\n\n");
+        java.append("@Service\npublic class ").append(entity).append("ServiceImpl implements ").append(entity).append("Service {\n");
+        java.append("    @Autowired\n    private ").append(entity).append("Mapper ").append(field).append("Mapper;\n\n");
+        for (String statement : STATEMENTS) {
+            java.append("    @Override\n    public Object ").append(statement).append(entity).append("(String name) {\n");
+            java.append("        return ").append(field).append("Mapper.").append(statement).append(entity).append("(name);\n");
+            java.append("    }\n\n");
+        }
+        java.append("}\n");
+        write(javaPath(pkg + ".service.impl", entity + "ServiceImpl"), java.toString());
+    }
+
+    private void writeController(String pkg, String entity, String field, int sink) throws IOException {
+        StringBuilder java = new StringBuilder();
+        java.append("package ").append(pkg).append(".controller;\n\n");
+        java.append("import ").append(pkg).append(".service.").append(entity).append("Service;\n");
+        if (sink >= 0) {
+            java.append("import ").append(pkg).append(".support.").append(entity).append("Step").append(sinkDepth - 1).append(";\n");
+        }
+        java.append("import org.springframework.beans.factory.annotation.Autowired;\n");
+        java.append("import org.springframework.web.bind.annotation.*;\n\n");
+        java.append("@RestController\n@RequestMapping(\"/").append(entity.toLowerCase()).append("\")\n");
+        java.append("public class ").append(entity).append("Controller {\n");
+        java.append("    @Autowired\n    private ").append(entity).append("Service ").append(field).append("Service;\n\n");
+        if (sink >= 0) {
+            java.append("    @Autowired\n    private ").append(entity).append("Step").append(sinkDepth - 1).append(' ').append(field).append("Step").append(sinkDepth - 1).append(";\n\n");
+        }
+        for (String statement : STATEMENTS) {
+            java.append("    @GetMapping(\"/").append(statement).append("\")\n");
+            java.append("    public Object ").append(statement).append("(@RequestParam String name) {\n");
+            java.append("        return ").append(field).append("Service.").append(statement).append(entity).append("(name);\n");
+            java.append("    }\n\n");
+        }
+        if (sink >= 0) {
+            java.append("    @PostMapping(\"/run\")\n");
+            java.append("    public Object run(@RequestBody String input) throws Exception {\n");
+            java.append("        return ").append(field).append("Step").append(sinkDepth - 1).append(".step").append(sinkDepth - 1).append("(input);\n");
+            java.append("    }\n\n");
+        }
+        java.append("}\n");
+        write(javaPath(pkg + ".controller", entity + "Controller"), java.toString());
+    }
+
+    /**
+     * 控制层 -> Step(depth-1) -> ... -> Step0，漏洞点在Step0里，从控制层到漏洞点一共depth层调用
+     */
+    private void writeSinkChain(String pkg, String entity, int sink) throws IOException {
+        String field = lowerFirst(entity);
+        for (int level = 0; level < sinkDepth; level++) {
+            String className = entity + "Step" + level;
+            StringBuilder java = new StringBuilder();
+            java.append("package ").append(pkg).append(".support;\n\n");
+            if (level == 0) {
+                java.append(sinkImports(sink));
+            }
+            java.append("import org.springframework.beans.factory.annotation.Autowired;\n");
+            java.append("import org.springframework.stereotype.Component;\n\n");
+            java.append("@Component\npublic class ").append(className).append(" {\n");
+            if (level > 0) {
+                java.append("    @Autowired\n    private ").append(entity).append("Step").append(level - 1).append(' ').append(field).append("Step").append(level - 1).append(";\n\n");
+            }
+            java.append("    public Object step").append(level).append("(String input) throws Exception {\n");
+            if (level > 0) {
+                java.append("        return ").append(field).append("Step").append(level - 1).append(".step").append(level - 1).append("(input);\n");
+            } else {
+                java.append(sinkBody(sink));
+            }
+            java.append("    }\n}\n");
+            write(javaPath(pkg + ".support", className), java.toString());
+        }
+    }
+
+    private static String sinkImports(int sink) {
+        switch (SINKS[sink]) {
+            case "groovyShell":
+                return "import groovy.lang.GroovyShell;\n";
+            case "parseObject":
+                return "import com.alibaba.fastjson.JSON;\n";
+            default:
+                return "";
+        }
+    }
+
+    private static String sinkBody(int sink) {
+        switch (SINKS[sink]) {
+            case "exec":
+                return "        return Runtime.getRuntime().exec(input);\n";
+            case "processBuilder":
+                return "        ProcessBuilder processBuilder = new ProcessBuilder(input);\n        return processBuilder.start();\n";
+            case "groovyShell":
+                return "        GroovyShell shell = new GroovyShell();\n        return shell.parse(input);\n";
+            default:
+                return "        return JSON.parseObject(input);\n";
+        }
+    }
+
+    private void writePom() throws IOException {
+        write("pom.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+                "    <modelVersion>4.0.0</modelVersion>\n" +
+                "    <groupId>com.example</groupId>\n" +
+                "    <artifactId>demo</artifactId>\n" +
+                "    <version>1.0</version>\n" +
+                "</project>\n");
+    }
+
+    private static String javaPath(String pkg, String className) {
+        return "src/main/java/" + pkg.replace('.', '/') + "/" + className + ".java";
+    }
+
+    private void write(String relativePath, String content) throws IOException {
+        Fixtures.write(new File(outDir, relativePath), content);
+        fileCount++;
+    }
+
+    private static String lowerFirst(String name) {
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+}
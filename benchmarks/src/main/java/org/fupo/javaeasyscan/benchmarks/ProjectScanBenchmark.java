@@ -0,0 +1,52 @@
+package org.fupo.javaeasyscan.benchmarks;
+
+import org.fupo.javaeasyscan.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Describe 在ProjectGenerator生成的项目上跑一遍完整的索引+扫描，种子固定，每次测的都是同一个项目
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 11:20 2024/6/25
+ **/
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectScanBenchmark {
+
+    @Param({"1000", "10000"})
+    public int files;
+
+    @Param({"42"})
+    public long seed;
+
+    private File projectDir;
+
+    @Setup
+    public void setUp() throws Exception {
+        projectDir = Fixtures.tempDir("project");
+        new ProjectGenerator(projectDir, files, seed, 0.25, 0.2, 3).generate();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(projectDir);
+    }
+
+    @Benchmark
+    public ScanEngine.ScanResult scan() {
+        ProjectIndex index = ProjectIndex.build(projectDir);
+        return ScanEngine.scan(index, Arrays.asList(
+                SQLInjecSplitScan::newDetector,
+                CommandInjectScan::newDetector,
+                GroovyShellScan::newDetector,
+                DeserializationFastJsonScan::newDetector));
+    }
+}
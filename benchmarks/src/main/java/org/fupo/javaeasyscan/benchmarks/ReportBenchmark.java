@@ -0,0 +1,72 @@
+package org.fupo.javaeasyscan.benchmarks;
+
+import org.fupo.javaeasyscan.Finding;
+import org.fupo.javaeasyscan.ReportSink;
+import org.fupo.javaeasyscan.ResultUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Describe 报告输出的耗时：大量结果经ReportSink写成html或jsonl
+ * 每次调用完都删掉报告和去重索引，保证下次调用的结果都真正写出去
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 16:15 2024/6/24
+ **/
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReportBenchmark {
+
+    @Param({"html", "jsonl"})
+    public String format;
+
+    @Param({"1000", "100000"})
+    public int results;
+
+    private final List<Finding> findings = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        ResultUtil.setFormat(format);
+        for (int i = 0; i < results; i++) {
+            String className = "UserService" + i;
+            Finding finding = new Finding("bench", "/bench/src/" + className + ".java", 42, className, "run",
+                    "Runtime.getRuntime().exec(cmd);",
+                    className + "类存在exec命令执行，在run方法中，第42行:\n<pre style=\"color:red;\">Runtime.getRuntime().exec(cmd);</pre>\n", true);
+            for (int depth = 1; depth <= 3; depth++) {
+                finding.getCallChain().add(new Finding.ChainStep(Finding.ChainStep.Kind.CALL, "/bench/src/Caller" + depth + ".java", 10 + depth,
+                        "Caller" + depth, "call" + depth, className, "run", "caller" + depth + ".run(cmd);", null));
+            }
+            findings.add(finding);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        ResultUtil.finish();
+        File[] reports = new File(".").listFiles((dir, name) -> name.startsWith("audit_report_"));
+        if (reports != null) {
+            for (File report : reports) {
+                report.delete();
+            }
+        }
+    }
+
+    @Benchmark
+    public int write() {
+        try (ReportSink sink = ResultUtil.openSink("bench")) {
+            for (Finding finding : findings) {
+                sink.add(finding);
+            }
+            return sink.size();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * @Describe 反向调用索引：ScanEngine遍历语法树时顺便记录所有调用点，按被调用的方法名分桶，往上跟进调用链时直接查表，不再重新解析文件
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 14:36 2024/6/20
+ **/
+public class CallGraph {
+    private static final Logger logger = LoggerFactory.getLogger(CallGraph.class);
+
+    // 类的基本信息：是否接口、实现了哪些接口、有哪些注解、自己声明了哪些方法，以及其中带@*Mapping注解的方法
+    public static class ClassInfo {
+        final String filePath;
+        final String name;
+        final boolean isInterface;
+        final List<String> implementedTypes;
+        final List<String> annotations;
+        final List<String> methods;
+        final List<String> mappingMethods;
+
+        ClassInfo(String filePath, String name, boolean isInterface, List<String> implementedTypes, List<String> annotations, List<String> methods, List<String> mappingMethods) {
+            this.filePath = filePath;
+            this.name = name;
+            this.isInterface = isInterface;
+            this.implementedTypes = implementedTypes;
+            this.annotations = annotations;
+            this.methods = methods;
+            this.mappingMethods = mappingMethods;
+        }
+    }
+
+    // 调用点：在哪个文件哪一行，哪个类的哪个方法，通过什么对象调用了哪个方法
+    public static class CallSite {
+        final String filePath;
+        final int line;
+        final ClassInfo callerClass;
+        // 离调用点最近的方法名
+        final String callerMethod;
+        // 调用点所在的callerClass自己声明的方法名（即callerClass.getMethods()里包含这个调用点的那个方法），不在其中时为null
+        final String ownerMethod;
+        final String methodName;
+        // 调用对象的源码（小写），没有调用对象（调用本类的方法）时为空串
+        final String scope;
+
+        CallSite(String filePath, int line, ClassInfo callerClass, String callerMethod, String ownerMethod, String methodName, String scope) {
+            this.filePath = filePath;
+            this.line = line;
+            this.callerClass = callerClass;
+            this.callerMethod = callerMethod;
+            this.ownerMethod = ownerMethod;
+            this.methodName = methodName;
+            this.scope = scope;
+        }
+    }
+
+    private final ProjectIndex index;
+    private final List<ClassInfo> classes = new ArrayList<>();
+    // 所有调用点，按文件顺序，文件内内部类先于外部类，外部类也包含内部类里的调用（和原来UsageVisitor的顺序一致）
+    private final List<CallSite> callSites = new ArrayList<>();
+    // key是被调用的方法名
+    private final Map<String, List<CallSite>> callSitesByMethod = new HashMap<>();
+    // key是类名，多模块项目里不同模块可能有同名的类
+    private final Map<String, List<ClassInfo>> classesByName = new HashMap<>();
+    private EntryPointIndex entryPoints;
+
+    public CallGraph(ProjectIndex index) {
+        this.index = index;
+    }
+
+    void addFile(List<ClassInfo> fileClasses, List<CallSite> fileCallSites) {
+        classes.addAll(fileClasses);
+        for (ClassInfo classInfo : fileClasses) {
+            classesByName.computeIfAbsent(classInfo.name, k -> new ArrayList<>()).add(classInfo);
+        }
+        for (CallSite callSite : fileCallSites) {
+            callSites.add(callSite);
+            callSitesByMethod.computeIfAbsent(callSite.methodName, k -> new ArrayList<>()).add(callSite);
+        }
+    }
+
+    void logSummary() {
+        logger.info("call graph: " + callSites.size() + " call sites, " + callSitesByMethod.size() + " method names, " + classes.size() + " classes");
+    }
+
+    public List<ClassInfo> getClasses() {
+        return classes;
+    }
+
+    public List<CallSite> getCallSites() {
+        return callSites;
+    }
+
+    /**
+     * HTTP入口可达性，第一次用到时算一次
+     */
+    public synchronized EntryPointIndex getEntryPoints() {
+        if (entryPoints == null) {
+            ScanMetrics.Phase phase = ScanMetrics.phase("entryPoints");
+            try {
+                entryPoints = new EntryPointIndex(index, this);
+            } finally {
+                phase.end();
+            }
+        }
+        return entryPoints;
+    }
+
+    /**
+     * 查找调用了className类methodName方法的地方，调用对象名包含类名即认为是该类（比如userService对应UserService）
+     * 多模块项目里调用点所在的模块要能（沿依赖关系）看到声明了className的模块
+     */
+    public List<CallSite> findCallers(String className, String methodName) {
+        List<CallSite> candidates = callSitesByMethod.get(methodName);
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+        String lowerClassName = className.toLowerCase();
+        List<CallSite> callers = new ArrayList<>();
+        for (CallSite callSite : candidates) {
+            if (callSite.scope.contains(lowerClassName) && canSee(callSite.filePath, className)) {
+                callers.add(callSite);
+            }
+        }
+        return callers;
+    }
+
+    /**
+     * filePath里的代码能不能用到className类：单模块项目、项目里没有这个类（JDK或第三方的类）时都算能用到
+     */
+    public boolean canSee(String filePath, String className) {
+        ModuleGraph modules = index.getModules();
+        List<ClassInfo> declaringClasses = classesByName.get(className);
+        if (!modules.isMultiModule() || declaringClasses == null) {
+            return true;
+        }
+        for (ClassInfo classInfo : declaringClasses) {
+            if (modules.canSee(filePath, classInfo.filePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 往上跟进调用链直至没有被调用为止，每个调用点是一步，顺序和原来的findUsages输出一致
+     */
+    public void findUsages(String className, String methodName, Set<String> visitedMethods, List<Finding.ChainStep> result) {
+        for (CallSite callSite : findCallers(className, methodName)) {
+            String callerClass = callSite.callerClass.name;
+            result.add(new Finding.ChainStep(Finding.ChainStep.Kind.CALL, callSite.filePath, callSite.line, callerClass, callSite.callerMethod, className, methodName, index.getLineContent(callSite.filePath, callSite.line), null));
+            String methodKey = callerClass + "." + callSite.callerMethod;
+            if (!visitedMethods.contains(methodKey)) {
+                visitedMethods.add(methodKey);
+                findUsages(callerClass, callSite.callerMethod, visitedMethods, result);
+            }
+        }
+    }
+}
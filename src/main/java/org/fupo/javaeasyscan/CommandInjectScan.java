@@ -1,21 +1,10 @@
 package org.fupo.javaeasyscan;
 
-import com.github.javaparser.JavaParser;
-import com.github.javaparser.ParserConfiguration;
-import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
-import com.github.javaparser.ast.body.MethodDeclaration;
-import com.github.javaparser.ast.expr.*;
-import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
-import com.github.javaparser.symbolsolver.JavaSymbolSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import com.github.javaparser.ast.expr.MethodCallExpr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.util.*;
 
 /**
@@ -25,260 +14,69 @@ import java.util.*;
  * @CreateDate 20:02 2024/6/14
  **/
 public class CommandInjectScan {
-    public static ResultUtil resultUtil;
-    public static String topic = "命令注入";
+    public static final String topic = "命令注入";
     private static final Logger logger = LoggerFactory.getLogger(CommandInjectScan.class);
 
     public static void main(String args) {
-        logger.info("Starting commandInject module");
-        File rootDir = new File(args);
-        List<String> results = scanJavaFiles(rootDir);
-        if (!results.isEmpty()) {
-            resultUtil.generateHtmlReport(results, topic);
-        } else {
-            System.out.println("\nnot found result\n");
-        }
+        main(ProjectIndex.build(new File(args)));
     }
 
-    public static List<String> scanJavaFiles(File dir) {
-        List<File> javaFiles = getJavaFiles(dir);
-        List<String> results = new ArrayList<>();
-        CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
-        combinedTypeSolver.add(new ReflectionTypeSolver());
-        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(combinedTypeSolver);
-        ParserConfiguration parserConfiguration = new ParserConfiguration().setSymbolResolver(symbolSolver);
-        JavaParser javaParser = new JavaParser(parserConfiguration);
+    public static void main(ProjectIndex index) {
+        logger.info("Starting commandInject module");
+        report(ScanEngine.scan(index, Collections.singletonList(CommandInjectScan::newDetector)));
+    }
 
-        for (File javaFile : javaFiles) {
-            logger.info("scan file: " + javaFile.getName());
-            try {
-                CompilationUnit cu = javaParser.parse(javaFile).getResult().get();
-                MethodCallVisitor methodCallVisitor = new MethodCallVisitor(javaFiles, javaParser, results);
-                methodCallVisitor.visit(cu, javaFile.getAbsolutePath());
-            } catch (IOException e) {
-                System.err.println("Failed to parse file: " + javaFile.getAbsolutePath());
-                e.printStackTrace();
-            }
-        }
-        return results;
+    public static Detector newDetector() {
+        return new CommandInjectDetector();
     }
 
-    public static List<File> getJavaFiles(File dir) {
-        List<File> javaFiles = new ArrayList<>();
-        if (dir.isDirectory()) {
-            for (File file : dir.listFiles()) {
-                if (file.isDirectory()) {
-                    javaFiles.addAll(getJavaFiles(file));
-                } else if (file.getName().endsWith(".java")) {
-                    javaFiles.add(file);
-                }
+    public static void report(ScanEngine.ScanResult scanResult) {
+        // 结果逐条写进报告，不再先拼成一个大列表
+        try (ReportSink sink = ResultUtil.openSink(topic)) {
+            for (Finding finding : scanResult.getFindings(CommandInjectDetector.class)) {
+                sink.add(finding);
+            }
+            if (sink.size() == 0) {
+                ResultUtil.notFound(topic);
             }
         }
-        return javaFiles;
     }
 
-    private static class MethodCallVisitor extends VoidVisitorAdapter<String> {
-        private final Map<String, String> variableDeclarations = new HashMap<>();
-        private String currentMethodName = "";
-        private String currentClassName = "";
-        private final List<File> javaFiles;
-        private final JavaParser javaParser;
-        private final List<String> results;
-
-        public MethodCallVisitor(List<File> javaFiles, JavaParser javaParser, List<String> results) {
-            this.javaFiles = javaFiles;
-            this.javaParser = javaParser;
-            this.results = results;
-        }
-
-        @Override
-        public void visit(ClassOrInterfaceDeclaration classOrInterface, String filePath) {
-            currentClassName = classOrInterface.getNameAsString();
-            super.visit(classOrInterface, filePath);
-        }
-
-        @Override
-        public void visit(MethodDeclaration methodDeclaration, String filePath) {
-            currentMethodName = methodDeclaration.getNameAsString();
-            super.visit(methodDeclaration, filePath);
-        }
-
-        @Override
-        public void visit(VariableDeclarator variableDeclarator, String filePath) {
-            super.visit(variableDeclarator, filePath);
-            if (variableDeclarator.getInitializer().isPresent()) {
-                Expression initializer = variableDeclarator.getInitializer().get();
-                if (initializer.isMethodCallExpr()) {
-                    MethodCallExpr methodCall = initializer.asMethodCallExpr();
-                    if (methodCall.getNameAsString().equals("getRuntime") && methodCall.getScope().isPresent() && methodCall.getScope().get().toString().equals("Runtime")) {
-                        variableDeclarations.put(variableDeclarator.getNameAsString(), "Runtime.getRuntime()");
-                    }
-                } else if (initializer.isObjectCreationExpr()) {
-                    ObjectCreationExpr objectCreationExpr = initializer.asObjectCreationExpr();
-                    if (objectCreationExpr.getType().getNameAsString().equals("ProcessBuilder")) {
-                        variableDeclarations.put(variableDeclarator.getNameAsString(), "new ProcessBuilder()");
-                    }
-                }
-            }
-        }
+    private static class CommandInjectDetector implements Detector {
+        private static final Set<String> TRIGGERS = new HashSet<>(Arrays.asList("exec", "start"));
 
         @Override
-        public void visit(AssignExpr assignExpr, String filePath) {
-            super.visit(assignExpr, filePath);
-            if (assignExpr.getTarget().isNameExpr() && assignExpr.getValue().isMethodCallExpr()) {
-                String variableName = assignExpr.getTarget().asNameExpr().getNameAsString();
-                MethodCallExpr methodCall = assignExpr.getValue().asMethodCallExpr();
-                if (methodCall.getNameAsString().equals("getRuntime") && methodCall.getScope().isPresent() && methodCall.getScope().get().toString().equals("Runtime")) {
-                    variableDeclarations.put(variableName, "Runtime.getRuntime()");
-                }
-            } else if (assignExpr.getTarget().isNameExpr() && assignExpr.getValue().isObjectCreationExpr()) {
-                String variableName = assignExpr.getTarget().asNameExpr().getNameAsString();
-                ObjectCreationExpr objectCreationExpr = assignExpr.getValue().asObjectCreationExpr();
-                if (objectCreationExpr.getType().getNameAsString().equals("ProcessBuilder")) {
-                    variableDeclarations.put(variableName, "new ProcessBuilder()");
-                }
-            }
+        public Set<String> triggers() {
+            return TRIGGERS;
         }
 
         @Override
-        public void visit(MethodCallExpr methodCall, String filePath) {
+        public void visit(MethodCallExpr methodCall, ScanContext context) {
             if (methodCall.getNameAsString().equals("exec")) {
-                int lineNumber = methodCall.getBegin().isPresent() ? methodCall.getBegin().get().line : -1;
-                StringBuilder result = new StringBuilder();
-                methodCall.getScope().ifPresent(scope -> {
-                    logger.info("method call scope: " + scope );
-                });
-
-                result.append(currentClassName).append("类存在exec命令执行，在").append(currentMethodName).append("方法中，第").append(lineNumber).append("行:\n");
-                result.append("<pre style=\"color:red;\">" + getLineContent(filePath, lineNumber)).append("</pre>\n");
-                findUsages(currentClassName, currentMethodName, javaFiles, javaParser, new HashSet<>(), result);
-                results.add(result.toString());
+                report(methodCall, "exec", context);
             } else if (methodCall.getNameAsString().equals("start")) {
-                if (isProcessBuilderStartMethod(methodCall)) {
-                    int lineNumber = methodCall.getBegin().isPresent() ? methodCall.getBegin().get().line : -1;
-                    StringBuilder result = new StringBuilder();
-                    methodCall.getScope().ifPresent(scope -> {
-                        logger.info("method call scope: " + scope );
-                    });
-                    result.append(currentClassName).append("类存在ProcessBuilder命令执行，在").append(currentMethodName).append("方法中，第").append(lineNumber).append("行:\n");
-                    result.append("<pre style=\"color:red;\">" + getLineContent(filePath, lineNumber)).append("</pre>\n");
-                    findUsages(currentClassName, currentMethodName, javaFiles, javaParser, new HashSet<>(), result);
-                    results.add(result.toString());
-                }
-            }
-            super.visit(methodCall, filePath);
-        }
-
-        private String getLineContent(String filePath, int lineNumber) {
-            if (lineNumber > 0) {
-                try {
-                    List<String> lines = Files.readAllLines(new File(filePath).toPath());
-                    if (lineNumber <= lines.size()) {
-                        return lines.get(lineNumber - 1).trim();
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+                if (isProcessBuilderStartMethod(methodCall, context)) {
+                    report(methodCall, "ProcessBuilder", context);
                 }
             }
-            return "";
-        }
-
-        private boolean isProcessBuilderStartMethod(MethodCallExpr methodCall) {
-            try {
-                return methodCall.resolve().getQualifiedSignature().contains("java.lang.ProcessBuilder.start");
-            } catch (Exception e) {
-                return false;
-            }
         }
 
-        private void findUsages(String className, String methodName, List<File> javaFiles, JavaParser javaParser, Set<String> visitedMethods, StringBuilder result) {
-            for (File javaFile : javaFiles) {
-                try {
-                    CompilationUnit cu = javaParser.parse(javaFile).getResult().get();
-                    new UsageVisitor(className, methodName, javaFiles, javaParser, visitedMethods, result).visit(cu, javaFile.getAbsolutePath());
-                } catch (IOException e) {
-                    System.err.println("Failed to parse file: " + javaFile.getAbsolutePath());
-                    e.printStackTrace();
-                }
-            }
+        private void report(MethodCallExpr methodCall, String sinkName, ScanContext context) {
+            int lineNumber = methodCall.getBegin().isPresent() ? methodCall.getBegin().get().line : -1;
+            methodCall.getScope().ifPresent(scope -> {
+                logger.info("method call scope: " + scope );
+            });
+            String className = context.getCurrentClassName();
+            String methodName = context.getCurrentMethodName();
+            String snippet = context.getLineContent(lineNumber);
+            String message = className + "类存在" + sinkName + "命令执行，在" + methodName + "方法中，第" + lineNumber + "行:\n"
+                    + "<pre style=\"color:red;\">" + snippet + "</pre>\n";
+            context.report(new Finding(topic, context.getFilePath(), lineNumber, className, methodName, snippet, message, true));
         }
 
-        private static class UsageVisitor extends VoidVisitorAdapter<String> {
-            private final String className;
-            private final String methodName;
-            private final List<File> javaFiles;
-            private final JavaParser javaParser;
-            private final Set<String> visitedMethods;
-            private final StringBuilder result;
-            private String currentMethodName = "";
-            private String currentClassName = "";
-
-            public UsageVisitor(String className, String methodName, List<File> javaFiles, JavaParser javaParser, Set<String> visitedMethods, StringBuilder result) {
-                this.className = className;
-                this.methodName = methodName;
-                this.javaFiles = javaFiles;
-                this.javaParser = javaParser;
-                this.visitedMethods = visitedMethods;
-                this.result = result;
-            }
-
-            @Override
-            public void visit(ClassOrInterfaceDeclaration classOrInterface, String filePath) {
-                currentClassName = classOrInterface.getNameAsString();
-                super.visit(classOrInterface, filePath);
-                String fileClassName = classOrInterface.getNameAsString();
-                classOrInterface.findAll(MethodCallExpr.class).forEach(methodCall -> {
-                    if (methodCall.getScope().isPresent() && methodCall.getScope().get().toString().toLowerCase().contains(className.toLowerCase()) && methodCall.getNameAsString().contains(methodName)) {
-                        int lineNumber = methodCall.getBegin().isPresent() ? methodCall.getBegin().get().line : -1;
-                        String callingMethodName = getContainingMethodName(methodCall);
-                        result.append("<b>往上继续跟进发现具体调用信息：</b>\n").append(filePath).append(" 第").append(lineNumber).append("行中 ").append(fileClassName).append("类的").append(callingMethodName).append("方法调用到了 ").append(className).append("的").append(methodName).append("方法：\n");
-                        result.append("<pre style=\"color:red;\">" + getLineContent(filePath, lineNumber)).append("</pre>\n");
-                        String methodKey = fileClassName + "." + callingMethodName;
-                        if (!visitedMethods.contains(methodKey)) {
-                            visitedMethods.add(methodKey);
-                            findUsages(fileClassName, callingMethodName, javaFiles, javaParser, visitedMethods, result);
-                        }
-                    }
-                });
-            }
-
-            @Override
-            public void visit(MethodDeclaration methodDeclaration, String filePath) {
-                currentMethodName = methodDeclaration.getNameAsString();
-                super.visit(methodDeclaration, filePath);
-            }
-
-            private String getContainingMethodName(MethodCallExpr methodCall) {
-                return methodCall.findAncestor(MethodDeclaration.class)
-                        .map(MethodDeclaration::getNameAsString)
-                        .orElse("Unknown Method");
-            }
-
-            private void findUsages(String className, String methodName, List<File> javaFiles, JavaParser javaParser, Set<String> visitedMethods, StringBuilder result) {
-                for (File javaFile : javaFiles) {
-                    try {
-                        CompilationUnit cu = javaParser.parse(javaFile).getResult().get();
-                        new UsageVisitor(className, methodName, javaFiles, javaParser, visitedMethods, result).visit(cu, javaFile.getAbsolutePath());
-                    } catch (IOException e) {
-                        System.err.println("Failed to parse file: " + javaFile.getAbsolutePath());
-                        e.printStackTrace();
-                    }
-                }
-            }
-
-            private String getLineContent(String filePath, int lineNumber) {
-                if (lineNumber > 0) {
-                    try {
-                        List<String> lines = Files.readAllLines(new File(filePath).toPath());
-                        if (lineNumber <= lines.size()) {
-                            return lines.get(lineNumber - 1).trim();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-                return "";
-            }
+        private boolean isProcessBuilderStartMethod(MethodCallExpr methodCall, ScanContext context) {
+            String signature = context.getResolutionService().resolveSignature(context.getFilePath(), methodCall);
+            return signature != null && signature.contains("java.lang.ProcessBuilder.start");
         }
     }
 }
@@ -0,0 +1,38 @@
+package org.fupo.javaeasyscan;
+
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.BinaryExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+
+import java.util.Set;
+
+/**
+ * @Describe 检测规则接口：ScanEngine对每个文件只遍历一次语法树，遍历到对应节点时回调所有注册的规则，
+ * 新增规则只需要实现这个接口，不用再写一遍完整的visitor
+ * 每个文件会新建一个规则实例，实例里的字段只在当前文件、当前线程里用，不需要考虑并发
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 11:20 2024/6/21
+ **/
+public interface Detector {
+
+    /**
+     * 触发词：源码里不出现其中任意一个（子串即可）时这个规则不可能命中，文件可以不为它解析；返回null表示每个文件都要检查
+     */
+    default Set<String> triggers() {
+        return null;
+    }
+
+    default void visit(MethodCallExpr methodCall, ScanContext context) {
+    }
+
+    default void visit(ObjectCreationExpr objectCreationExpr, ScanContext context) {
+    }
+
+    default void visit(VariableDeclarator variableDeclarator, ScanContext context) {
+    }
+
+    default void visit(BinaryExpr binaryExpr, ScanContext context) {
+    }
+}
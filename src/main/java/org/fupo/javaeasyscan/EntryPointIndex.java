@@ -0,0 +1,173 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * @Describe HTTP入口可达性：以@Controller/@RestController/@RequestMapping类的方法和带@*Mapping注解的方法为入口，沿调用索引正向做一次广度优先遍历，
+ * 记下每个能走到的方法是从哪一步过来的；之后任意模块的漏洞点只要按"类名.方法名"查一次表，就知道能不能从HTTP入口走到、走的是哪条路径（最短的一条）
+ * 调用对象的匹配规则和往上跟进调用链时一样：调用对象名包含类名即认为是该类；调用了接口的方法时，同时认为走到了实现类里的同名方法
+ * 多模块项目里只沿模块依赖关系走，调用点所在的模块看不到的类不算
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 16:40 2024/6/27
+ **/
+public class EntryPointIndex {
+    private static final Logger logger = LoggerFactory.getLogger(EntryPointIndex.class);
+    private static final Set<String> CONTROLLER_ANNOTATIONS = new HashSet<>(Arrays.asList("Controller", "RestController", "RequestMapping"));
+
+    // 一个方法：所在文件（多模块项目里用来区分不同模块的同名类）、类名、方法名
+    private static class MethodRef {
+        final String filePath;
+        final String className;
+        final String methodName;
+
+        MethodRef(String filePath, String className, String methodName) {
+            this.filePath = filePath;
+            this.className = className;
+            this.methodName = methodName;
+        }
+    }
+
+    // 走到某个方法的上一步：从哪个方法、经过哪个调用点；入口方法没有上一步，实现类方法没有调用点
+    private static class Hop {
+        final MethodRef to;
+        final MethodRef from;
+        final CallGraph.CallSite callSite;
+        final String interfaceName;
+
+        Hop(MethodRef to, MethodRef from, CallGraph.CallSite callSite, String interfaceName) {
+            this.to = to;
+            this.from = from;
+            this.callSite = callSite;
+            this.interfaceName = interfaceName;
+        }
+    }
+
+    private final ProjectIndex index;
+    private final ModuleGraph modules;
+    // key见key()
+    private final Map<String, Hop> reached = new HashMap<>();
+    private final int entryCount;
+
+    EntryPointIndex(ProjectIndex index, CallGraph callGraph) {
+        this.index = index;
+        this.modules = index.getModules();
+        // 方法名 -> 声明了它的类，接口名 -> 实现类，方法 -> 这个方法里的调用点
+        Map<String, List<CallGraph.ClassInfo>> declaringClasses = new HashMap<>();
+        Map<String, List<CallGraph.ClassInfo>> implementations = new HashMap<>();
+        Map<String, List<CallGraph.CallSite>> callSitesByCaller = new HashMap<>();
+        Deque<MethodRef> queue = new ArrayDeque<>();
+        for (CallGraph.ClassInfo classInfo : callGraph.getClasses()) {
+            for (String method : new LinkedHashSet<>(classInfo.methods)) {
+                declaringClasses.computeIfAbsent(method, k -> new ArrayList<>()).add(classInfo);
+            }
+            for (String implementedType : classInfo.implementedTypes) {
+                implementations.computeIfAbsent(implementedType, k -> new ArrayList<>()).add(classInfo);
+            }
+            List<String> entryMethods = isEntryClass(classInfo) ? classInfo.methods : classInfo.mappingMethods;
+            for (String method : entryMethods) {
+                MethodRef entry = new MethodRef(classInfo.filePath, classInfo.name, method);
+                if (reached.putIfAbsent(key(entry), new Hop(entry, null, null, null)) == null) {
+                    queue.add(entry);
+                }
+            }
+        }
+        entryCount = reached.size();
+        for (CallGraph.CallSite callSite : callGraph.getCallSites()) {
+            callSitesByCaller.computeIfAbsent(key(callSite.callerClass.filePath, callSite.callerClass.name, callSite.callerMethod), k -> new ArrayList<>()).add(callSite);
+        }
+
+        while (!queue.isEmpty()) {
+            MethodRef method = queue.poll();
+            // 接口方法 -> 实现类的同名方法，实现类所在的模块要能看到接口
+            for (CallGraph.ClassInfo implementation : implementations.getOrDefault(method.className, Collections.emptyList())) {
+                if (implementation.methods.contains(method.methodName) && modules.canSee(implementation.filePath, method.filePath)) {
+                    visit(new MethodRef(implementation.filePath, implementation.name, method.methodName), method, null, method.className, queue);
+                }
+            }
+            for (CallGraph.CallSite callSite : callSitesByCaller.getOrDefault(key(method), Collections.emptyList())) {
+                for (CallGraph.ClassInfo callee : declaringClasses.getOrDefault(callSite.methodName, Collections.emptyList())) {
+                    boolean matches = callSite.scope.isEmpty()
+                            ? callee == callSite.callerClass
+                            : callSite.scope.contains(callee.name.toLowerCase()) && modules.canSee(callSite.filePath, callee.filePath);
+                    if (matches) {
+                        visit(new MethodRef(callee.filePath, callee.name, callSite.methodName), method, callSite, null, queue);
+                    }
+                }
+            }
+        }
+        ScanMetrics.count("entryPoints.entries", entryCount);
+        ScanMetrics.count("entryPoints.reachableMethods", reached.size());
+        logger.info("entry points: " + entryCount + " entry methods, " + reached.size() + " methods reachable from them");
+    }
+
+    private void visit(MethodRef to, MethodRef from, CallGraph.CallSite callSite, String interfaceName, Deque<MethodRef> queue) {
+        String key = key(to);
+        if (!reached.containsKey(key)) {
+            reached.put(key, new Hop(to, from, callSite, interfaceName));
+            queue.add(to);
+        }
+    }
+
+    private String key(MethodRef method) {
+        return key(method.filePath, method.className, method.methodName);
+    }
+
+    // "类名.方法名"，多模块项目里前面再加上模块名，不同模块的同名类互不干扰
+    private String key(String filePath, String className, String methodName) {
+        if (modules.isMultiModule()) {
+            return modules.moduleOf(filePath).getName() + "/" + className + "." + methodName;
+        }
+        return className + "." + methodName;
+    }
+
+    public static boolean isEntryClass(CallGraph.ClassInfo classInfo) {
+        for (String annotation : classInfo.annotations) {
+            if (CONTROLLER_ANNOTATIONS.contains(annotation) || annotation.endsWith("Mapping")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * filePath里className类的methodName方法能否从HTTP入口走到
+     */
+    public boolean isReachable(String filePath, String className, String methodName) {
+        return reached.containsKey(key(filePath, className, methodName));
+    }
+
+    /**
+     * 从HTTP入口走到filePath里className类methodName方法的路径，第一步的className/methodName就是入口方法；
+     * 方法本身就是入口时返回空列表，走不到时返回null
+     */
+    public List<Finding.ChainStep> pathTo(String filePath, String className, String methodName) {
+        Hop hop = reached.get(key(filePath, className, methodName));
+        if (hop == null) {
+            return null;
+        }
+        LinkedList<Finding.ChainStep> path = new LinkedList<>();
+        while (hop.from != null) {
+            MethodRef to = hop.to;
+            MethodRef from = hop.from;
+            if (hop.callSite != null) {
+                CallGraph.CallSite callSite = hop.callSite;
+                path.addFirst(new Finding.ChainStep(Finding.ChainStep.Kind.CALL, callSite.filePath, callSite.line, from.className, from.methodName,
+                        to.className, to.methodName, index.getLineContent(callSite.filePath, callSite.line), null));
+            } else {
+                // 接口方法落到实现类，没有具体的调用点
+                path.addFirst(new Finding.ChainStep(Finding.ChainStep.Kind.OVERRIDE, to.filePath, -1, from.className, from.methodName,
+                        to.className, to.methodName, null, hop.interfaceName));
+            }
+            hop = reached.get(key(from));
+        }
+        return path;
+    }
+}
@@ -0,0 +1,188 @@
+package org.fupo.javaeasyscan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @Describe 一条扫描结果：漏洞点所在文件、行、类、方法，报告里展示的描述，以及往上跟进得到的调用链
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 11:34 2024/6/21
+ **/
+public class Finding {
+    // 调用链上的一步：filePath第line行，className类的methodName方法调用了calleeClass的calleeMethod方法
+    public static class ChainStep {
+        public enum Kind {
+            // 反向调用索引往上跟进的调用
+            CALL,
+            // 实现类调用Mapper方法，detail是实现类实现的接口
+            IMPL,
+            // 控制层调用被实现的接口
+            CONTROLLER,
+            // 从入口往下走时，调用的接口方法落到实现类的同名方法：className是接口调用所在的方法，calleeClass是实现类，detail是接口
+            OVERRIDE
+        }
+
+        final Kind kind;
+        final String filePath;
+        final int line;
+        final String className;
+        final String methodName;
+        final String calleeClass;
+        final String calleeMethod;
+        final String code;
+        final String detail;
+
+        public ChainStep(Kind kind, String filePath, int line, String className, String methodName, String calleeClass, String calleeMethod, String code, String detail) {
+            this.kind = kind;
+            this.filePath = filePath;
+            this.line = line;
+            this.className = className;
+            this.methodName = methodName;
+            this.calleeClass = calleeClass;
+            this.calleeMethod = calleeMethod;
+            this.code = code;
+            this.detail = detail;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getFilePath() {
+            return filePath;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public String getCalleeClass() {
+            return calleeClass;
+        }
+
+        public String getCalleeMethod() {
+            return calleeMethod;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public String toHtml() {
+            switch (kind) {
+                case IMPL:
+                    return String.format("<b>调用信息如下:</b>%n%n%s 类实现了接口 %s , 该实现类调用了 %s 的 %s 方法：%n<pre style=\"color:red;\">%s</pre>%n", className, detail, calleeClass, calleeMethod, code);
+                case CONTROLLER:
+                    return String.format("往上跟进被实现的接口发现，%s 类的 %s 方法调用了被实现接口 %s 的 %s 方法，在第 %d 行：%n<pre style=\"color:red;\">%s</pre>%n", className, methodName, calleeClass, calleeMethod, line, code);
+                default:
+                    return "<b>往上继续跟进发现具体调用信息：</b>\n" + filePath + " 第" + line + "行中 " + className + "类的" + methodName + "方法调用到了 " + calleeClass + "的" + calleeMethod + "方法：\n"
+                            + "<pre style=\"color:red;\">" + code + "</pre>\n";
+            }
+        }
+    }
+
+    final String topic;
+    final String filePath;
+    final int lineNumber;
+    final String className;
+    final String methodName;
+    final String snippet;
+    final String message;
+    // 是否需要往上跟进调用了className类methodName方法的地方
+    final boolean traceCallers;
+    List<ChainStep> callChain = new ArrayList<>();
+    // 跟进调用链时查过的方法名，增量扫描时这些方法的调用点都没变就直接复用callChain
+    Set<String> callChainMethods;
+    // 上报这条结果的规则，ScanContext.report时填写
+    Class<?> detectorClass;
+    // 漏洞所在行前后几行源码，ScanContext.report时填写
+    String context;
+    // 从HTTP入口到className类methodName方法的路径，方法本身是入口时为空列表，入口走不到时为null，每次扫描根据调用索引重新计算
+    List<ChainStep> entryPath;
+
+    public Finding(String topic, String filePath, int lineNumber, String className, String methodName, String snippet, String message, boolean traceCallers) {
+        this.topic = topic;
+        this.filePath = filePath;
+        this.lineNumber = lineNumber;
+        this.className = className;
+        this.methodName = methodName;
+        this.snippet = snippet;
+        this.message = message;
+        this.traceCallers = traceCallers;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    public List<ChainStep> getCallChain() {
+        return callChain;
+    }
+
+    public List<ChainStep> getEntryPath() {
+        return entryPath;
+    }
+
+    /**
+     * 报告里展示的完整内容：漏洞描述+所在行上下文+调用链+HTTP入口可达路径
+     */
+    public String toHtml() {
+        StringBuilder html = new StringBuilder(message);
+        if (context != null && !context.isEmpty()) {
+            html.append("<b>第").append(lineNumber).append("行上下文：</b><pre>").append(context).append("</pre>");
+        }
+        for (ChainStep step : callChain) {
+            html.append(step.toHtml());
+        }
+        if (entryPath != null) {
+            html.append("<b>从HTTP入口可达：</b>");
+            if (entryPath.isEmpty()) {
+                html.append(className).append('.').append(methodName).append(" 本身就是入口方法");
+            } else {
+                html.append(entryPath.get(0).className).append('.').append(entryPath.get(0).methodName);
+                for (ChainStep step : entryPath) {
+                    if (step.line > 0) {
+                        html.append(" (第").append(step.line).append("行)");
+                    }
+                    html.append(" -> ").append(step.calleeClass).append('.').append(step.calleeMethod);
+                }
+            }
+            html.append('\n');
+        }
+        return html.toString();
+    }
+}
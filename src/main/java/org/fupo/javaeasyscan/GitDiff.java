@@ -0,0 +1,98 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * @Describe --since：从本地git仓库读出改动过的文件，PR扫描时只对这些文件跑规则
+ * 改动范围是rev和HEAD的分叉点到当前工作区：分支上提交过的、暂存区和工作区里还没提交的改动，以及没被忽略的新文件；rev之后目标分支上别人的提交不算
+ * 删掉的文件里不会再有结果，不算改动
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 14:30 2024/7/1
+ **/
+public class GitDiff {
+    private static final Logger logger = LoggerFactory.getLogger(GitDiff.class);
+
+    /**
+     * rootDir下相对rev改动过的文件，返回绝对路径；rootDir不在git仓库里、rev不存在或者不是提交时抛IOException
+     */
+    public static Set<String> changedFiles(File rootDir, String rev) throws IOException {
+        // rev来自命令行，以-开头时git会把它当成选项（比如--output=文件）
+        if (rev.startsWith("-")) {
+            throw new IOException("invalid revision: " + rev);
+        }
+        // 先解析成提交的SHA，后面的命令只传SHA
+        List<String> commit = git(rootDir, false, "rev-parse", "--verify", "--quiet", rev + "^{commit}");
+        if (commit.size() != 1) {
+            throw new IOException("unknown revision: " + rev + " in " + rootDir.getAbsolutePath());
+        }
+        String base = commit.get(0);
+        List<String> mergeBase = git(rootDir, false, "merge-base", base, "HEAD");
+        if (mergeBase.size() == 1) {
+            base = mergeBase.get(0);
+        } else {
+            // 没有共同祖先（比如浅克隆），直接和rev比
+            logger.warn("no merge base between " + rev + " and HEAD, diff against " + rev + " directly");
+        }
+        Set<String> files = new LinkedHashSet<>();
+        // --relative：只要rootDir下的文件，路径相对rootDir
+        for (String path : git(rootDir, true, "diff", "--name-only", "--relative", "--diff-filter=ACMR", "-z", base, "--")) {
+            files.add(new File(rootDir, path).getAbsolutePath());
+        }
+        for (String path : git(rootDir, true, "ls-files", "--others", "--exclude-standard", "-z")) {
+            files.add(new File(rootDir, path).getAbsolutePath());
+        }
+        logger.info("since " + rev + " (" + base + "): " + files.size() + " changed files");
+        return files;
+    }
+
+    // 在dir下执行git，按\0（-z）或者换行切分输出；required为false时失败返回空列表
+    private static List<String> git(File dir, boolean required, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+                .directory(dir)
+                .redirectError(required ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.PIPE)
+                .start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        }
+        int exitCode;
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while running git " + String.join(" ", args), e);
+        } finally {
+            // 不要求成功时错误信息（最多一两行）不输出
+            process.getErrorStream().close();
+        }
+        if (exitCode != 0) {
+            if (!required) {
+                return Collections.emptyList();
+            }
+            throw new IOException("git " + String.join(" ", args) + " failed with exit code " + exitCode + " in " + dir.getAbsolutePath());
+        }
+        List<String> lines = new ArrayList<>();
+        for (String line : output.toString(StandardCharsets.UTF_8.name()).split("[\\x00\\n]")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
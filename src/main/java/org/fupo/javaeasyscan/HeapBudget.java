@@ -0,0 +1,104 @@
+package org.fupo.javaeasyscan;
+
+import java.util.Locale;
+
+/**
+ * @Describe --max-heap-target：解析阶段的背压。堆占用超过目标值时，新文件先不解析，等正在解析的文件处理完再继续，
+ * 超过目标时同一时刻只剩一个文件在解析，峰值内存由并发数决定，不随项目大小增长；没设置时不做任何检查
+ * 堆占用按已用内存算，里面包含还没回收的垃圾，目标值一般设成-Xmx的六七成
+ * 只在lean模式下有意义：不是lean模式时解析过的语法树都留在索引里，堆占用降不回目标以下，Main里直接拒绝这种组合
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:20 2024/6/28
+ **/
+public class HeapBudget {
+    private static final Object lock = new Object();
+    // 0表示不限制
+    private static volatile long maxHeapTarget;
+    private static volatile long peakUsed;
+    private static int inFlight;
+
+    public static void setMaxHeapTarget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("max heap target must be >= 0: " + bytes);
+        }
+        maxHeapTarget = bytes;
+    }
+
+    public static long getMaxHeapTarget() {
+        return maxHeapTarget;
+    }
+
+    /**
+     * 解析"512m"、"12g"、"1048576k"这样的大小，不带单位时按字节
+     */
+    public static long parseSize(String value) {
+        String size = value.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (size.endsWith("k") || size.endsWith("m") || size.endsWith("g")) {
+            unit = size.endsWith("k") ? 1L << 10 : size.endsWith("m") ? 1L << 20 : 1L << 30;
+            size = size.substring(0, size.length() - 1);
+        }
+        try {
+            return Long.parseLong(size) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid size: " + value);
+        }
+    }
+
+    /**
+     * 开始解析一个文件之前调用，堆占用超过目标值且还有别的文件在解析时等待；返回true时处理完要调用release()
+     */
+    public static boolean acquire() {
+        long target = maxHeapTarget;
+        if (target <= 0) {
+            return false;
+        }
+        synchronized (lock) {
+            if (usedHeap() > target && inFlight > 0) {
+                ScanMetrics.count("heap.throttled");
+                ScanMetrics.Phase phase = ScanMetrics.phase("heap.wait");
+                try {
+                    // 等待期间不再分配，正在解析的文件处理完后语法树就成了垃圾，最后一个文件一定能放行，不会卡死
+                    while (usedHeap() > target && inFlight > 0) {
+                        try {
+                            lock.wait(50);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                } finally {
+                    phase.end();
+                }
+            }
+            inFlight++;
+        }
+        return true;
+    }
+
+    public static void release() {
+        synchronized (lock) {
+            // 文件刚处理完时语法树还在，顺便记一次峰值
+            usedHeap();
+            inFlight--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 设置了目标值之后观察到的最大堆占用
+     */
+    public static long getPeakUsed() {
+        return peakUsed;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        if (used > peakUsed) {
+            peakUsed = used;
+        }
+        return used;
+    }
+}
@@ -1,6 +1,18 @@
 package org.fupo.javaeasyscan;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * @Describe
@@ -9,10 +21,18 @@ import java.io.File;
  * @CreateDate 19:42 2024/6/16
  **/
 public class Main {
+    private static final Logger logger = LoggerFactory.getLogger(Main.class);
+    // 在同一次遍历里完成的Java规则
+    static final List<Supplier<Detector>> JAVA_DETECTORS = Arrays.asList(
+            SQLInjecSplitScan::newDetector,
+            CommandInjectScan::newDetector,
+            GroovyShellScan::newDetector,
+            DeserializationFastJsonScan::newDetector);
+
     public static void main(String[] args) throws Exception {
 
 
-        String help = "Usage: java -jar javaeasyscan.jar source_code_path";
+        String help = "Usage: java -jar javaeasyscan.jar source_code_path [--threads N] [--cache] [--cache-file path] [--state-dir dir] [--format html|sarif|jsonl] [--metrics-file path] [--profile [topN]] [--lean [--max-heap-target size]] [--virtual-threads] [--daemon [--port N]] [--watch] [--since rev]";
         String author = "" +
                 "███████╗██╗   ██╗██████╗  ██████╗\n" +
                 "██╔════╝██║   ██║██╔══██╗██╔═══██╗\n" +
@@ -22,18 +42,144 @@ public class Main {
                 "╚═╝      ╚═════╝ ╚═╝      ╚═════╝\n" +
                 "                       JAVAEASYSCANNER  Fupo's series\n" +
                 "—————————————————————————————————————————————————————\n";
-        System.out.println(author);
+        // --watch的标准输出是jsonl结果流，--daemon的结果走HTTP，横幅打到标准错误，不混进结果里
+        List<String> arguments = Arrays.asList(args);
+        PrintStream console = arguments.contains("--watch") || arguments.contains("--daemon") ? System.err : System.out;
+        console.println(author);
 
         if (args.length==0){
             System.out.println("Missing parameter, please enter the source code directory\n" + help);
             System.exit(0);
         }
 
-        File rootDir = new File(args[0]);
-        SQLInjectScan.main(rootDir.getAbsolutePath());
-        SQLInjecSplitScan.main(rootDir.getAbsolutePath());
-        CommandInjectScan.main(rootDir.getAbsolutePath());
-        GroovyShellScan.main(rootDir.getAbsolutePath());
-        DeserializationFastJsonScan.main(rootDir.getAbsolutePath());
+        String sourcePath = null;
+        File cacheFile = null;
+        File metricsFile = null;
+        int profileTop = 0;
+        boolean cacheNextToProject = false;
+        boolean lean = false;
+        long maxHeapTarget = 0;
+        boolean daemon = false;
+        boolean watch = false;
+        String since = null;
+        int port = ScanDaemon.DEFAULT_PORT;
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                // 扫描线程数，所有模块共用，默认为CPU核数，1表示串行
+                ScanExecutor.setThreads(Integer.parseInt(args[++i]));
+            } else if ("--virtual-threads".equals(args[i])) {
+                // JDK21及以上用虚拟线程跑文件级任务，并发数仍由--threads限制
+                ScanExecutor.setVirtualThreads(true);
+            } else if ("--state-dir".equals(args[i]) && i + 1 < args.length) {
+                // 增量扫描的状态目录，只重新解析上次扫描之后新增和修改过的文件
+                cacheFile = new File(args[++i], ScanState.CACHE_FILE);
+            } else if ("--cache-file".equals(args[i]) && i + 1 < args.length) {
+                // 指定缓存文件，可以在不同的CI机器之间共享
+                cacheFile = new File(args[++i]);
+            } else if ("--format".equals(args[i]) && i + 1 < args.length) {
+                // 报告格式，sarif/jsonl给CI用
+                ResultUtil.setFormat(args[++i]);
+            } else if ("--metrics-file".equals(args[i]) && i + 1 < args.length) {
+                // 各阶段耗时和计数的JSON汇总另外写一份到文件
+                metricsFile = new File(args[++i]);
+            } else if ("--profile".equals(args[i])) {
+                // 记录每个文件、每个规则的耗时和分配内存，结束时列出最耗时的topN，默认20
+                profileTop = 20;
+                if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                    profileTop = Integer.parseInt(args[++i]);
+                }
+                ScanProfiler.enable();
+            } else if ("--lean".equals(args[i])) {
+                // 超大仓库用：不保留语法树和文件内容，每个文件只留下调用索引摘要
+                lean = true;
+            } else if ("--max-heap-target".equals(args[i]) && i + 1 < args.length) {
+                // 堆占用超过这个值时解析阶段减到单线程，比如12g、800m，只能和--lean一起用
+                maxHeapTarget = HeapBudget.parseSize(args[++i]);
+            } else if ("--daemon".equals(args[i])) {
+                // 常驻进程，索引和各种缓存留在内存里，通过本机HTTP接口接收扫描请求
+                daemon = true;
+            } else if ("--watch".equals(args[i])) {
+                // 监听源码目录，文件一改就增量重扫，结果变化输出到标准输出
+                watch = true;
+            } else if ("--since".equals(args[i]) && i + 1 < args.length) {
+                // PR扫描：只对相对这个版本改动过的文件跑规则，调用链只看经过改动方法的
+                since = args[++i];
+            } else if ("--port".equals(args[i]) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("--cache".equals(args[i])) {
+                // 缓存写在项目目录下的.javaeasyscan里
+                cacheNextToProject = true;
+            } else {
+                sourcePath = args[i];
+            }
+        }
+        if (maxHeapTarget > 0 && !lean) {
+            // 不是lean模式时语法树和文件内容一直缓存在索引里，堆占用超过目标后降不下来，剩下的文件会一直单线程解析
+            throw new IllegalArgumentException("--max-heap-target requires --lean");
+        }
+        HeapBudget.setMaxHeapTarget(maxHeapTarget);
+        if (daemon) {
+            ScanDaemon scanDaemon = new ScanDaemon(sourcePath == null ? null : new File(sourcePath), lean);
+            scanDaemon.start(port);
+            scanDaemon.awaitStop();
+            return;
+        }
+        if (sourcePath == null) {
+            System.out.println("Missing parameter, please enter the source code directory\n" + help);
+            System.exit(0);
+        }
+
+        File rootDir = new File(sourcePath);
+        if (watch) {
+            new ScanWatcher(rootDir, lean, System.out).run();
+            return;
+        }
+        if (cacheFile == null && cacheNextToProject) {
+            cacheFile = new File(new File(rootDir, ".javaeasyscan"), ScanState.CACHE_FILE);
+        }
+        // 只遍历、解析一次源码，各模块共用同一份索引
+        ProjectIndex index = ProjectIndex.build(rootDir.getAbsoluteFile());
+        index.setLean(lean);
+        if (since != null) {
+            index.setChangedFiles(GitDiff.changedFiles(rootDir.getAbsoluteFile(), since));
+        }
+        File stateFile = cacheFile;
+        runModules(index, () -> ScanEngine.scan(index, JAVA_DETECTORS, stateFile));
+
+        if (profileTop > 0) {
+            System.out.println(ScanProfiler.report(rootDir.getAbsoluteFile(), profileTop));
+        }
+
+        if (HeapBudget.getMaxHeapTarget() > 0) {
+            logger.info("heap: peak used " + (HeapBudget.getPeakUsed() >> 20) + "MB, target " + (HeapBudget.getMaxHeapTarget() >> 20) + "MB");
+        }
+        String metrics = ScanMetrics.summary();
+        logger.info("scan metrics: " + metrics);
+        if (metricsFile != null) {
+            Files.write(metricsFile.toPath(), (metrics + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 并发跑Java规则和MyBatis两个模块，按固定顺序写报告，返回Java模块的扫描结果
+     */
+    static ScanEngine.ScanResult runModules(ProjectIndex index, Callable<ScanEngine.ScanResult> javaTask) throws Exception {
+        // MyBatis模块跟进调用链时等Java模块建好调用链索引，不再自己扫一遍
+        index.expectCallGraph();
+        try (ScanScheduler scheduler = new ScanScheduler()) {
+            // 所有规则在同一次遍历里完成，顺便建好调用链索引
+            CompletableFuture<ScanEngine.ScanResult> javaScan = scheduler.submit("java", javaTask);
+            CompletableFuture<Map<String, List<SQLInjectScan.VulnerabilityDetail>>> mybatisScan = scheduler.submit("mybatis", () -> SQLInjectScan.scan(index));
+            // 报告顺序和原来串行扫描时一致
+            scheduler.report(mybatisScan, SQLInjectScan::report);
+            scheduler.report(javaScan, SQLInjecSplitScan::report);
+            scheduler.report(javaScan, CommandInjectScan::report);
+            scheduler.report(javaScan, GroovyShellScan::report);
+            scheduler.report(javaScan, DeserializationFastJsonScan::report);
+            scheduler.await();
+            return javaScan.get();
+        } finally {
+            ResultUtil.finish();
+        }
     }
 }
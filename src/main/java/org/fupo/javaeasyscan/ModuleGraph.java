@@ -0,0 +1,283 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @Describe 多模块项目的模块划分：从根目录的pom.xml（<modules>，递归）或settings.gradle(.kts)（include）找出各模块，
+ * 模块间的依赖取pom里依赖了同一个reactor里其他模块的<dependency>、build.gradle里的project(':xxx')
+ * 每个文件归到离它最近的模块目录，跨模块的调用只认沿依赖关系（含传递依赖）看得到的模块；根目录没有构建文件时整个项目就是一个模块
+ * 不在任何子模块里的文件（比如聚合工程根目录下的代码）归到根模块，根模块和谁都互相可见，宁可多报不漏报
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 14:10 2024/6/28
+ **/
+public class ModuleGraph {
+    private static final Logger logger = LoggerFactory.getLogger(ModuleGraph.class);
+    private static final Pattern GRADLE_QUOTED = Pattern.compile("['\"]([^'\"]+)['\"]");
+    private static final Pattern GRADLE_PROJECT_DEPENDENCY = Pattern.compile("project\\s*\\(\\s*(?:path\\s*:\\s*)?['\"](:[^'\"]+)['\"]");
+    private static final XMLInputFactory XML_INPUT_FACTORY = newXmlInputFactory();
+
+    public static class Module {
+        final String name;
+        final File dir;
+        // 路径前缀，用来判断文件属于哪个模块
+        final String dirPrefix;
+        // 直接依赖的模块名（Maven是artifactId，Gradle是项目路径）
+        final Set<String> dependencyNames = new LinkedHashSet<>();
+        // 自己加上直接和传递依赖的模块
+        final Set<Module> visible = new HashSet<>();
+
+        Module(String name, File dir) {
+            this.name = name;
+            this.dir = dir;
+            this.dirPrefix = normalize(dir.getPath()) + File.separator;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public File getDir() {
+            return dir;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Module root;
+    // 按目录从深到浅排列，第一个前缀匹配的就是离文件最近的模块
+    private final List<Module> modules = new ArrayList<>();
+    private final Map<String, Module> moduleOfPath = new ConcurrentHashMap<>();
+
+    private ModuleGraph(Module root, Collection<Module> discovered) {
+        this.root = root;
+        modules.addAll(discovered);
+        modules.sort(Comparator.comparingInt((Module module) -> module.dirPrefix.length()).reversed());
+        Map<String, Module> byName = new HashMap<>();
+        for (Module module : modules) {
+            byName.putIfAbsent(module.name, module);
+        }
+        for (Module module : modules) {
+            Deque<Module> stack = new ArrayDeque<>();
+            stack.push(module);
+            while (!stack.isEmpty()) {
+                Module current = stack.pop();
+                if (module.visible.add(current)) {
+                    for (String dependencyName : current.dependencyNames) {
+                        Module dependency = byName.get(dependencyName);
+                        if (dependency != null) {
+                            stack.push(dependency);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 从根目录的构建文件找模块，先认Maven再认Gradle，都没有时整个目录是一个模块
+     */
+    public static ModuleGraph discover(File rootDir) {
+        Map<File, Module> discovered = new LinkedHashMap<>();
+        Module root = null;
+        try {
+            if (new File(rootDir, "pom.xml").isFile()) {
+                root = discoverMaven(rootDir, discovered);
+            } else if (gradleSettings(rootDir) != null) {
+                root = discoverGradle(rootDir, discovered);
+            }
+        } catch (IOException | XMLStreamException e) {
+            logger.warn("Failed to read build files under " + rootDir.getAbsolutePath() + ", scan as a single module: " + e.getMessage());
+            discovered.clear();
+            root = null;
+        }
+        if (root == null) {
+            discovered.clear();
+            root = new Module(rootDir.getName(), rootDir);
+            discovered.put(rootDir, root);
+        }
+        ModuleGraph graph = new ModuleGraph(root, discovered.values());
+        logger.info("modules: " + graph.modules.size());
+        return graph;
+    }
+
+    private static Module discoverMaven(File rootDir, Map<File, Module> discovered) throws IOException, XMLStreamException {
+        Deque<File> pending = new ArrayDeque<>();
+        pending.add(rootDir);
+        Module root = null;
+        while (!pending.isEmpty()) {
+            File dir = pending.poll();
+            File pom = new File(dir, "pom.xml");
+            if (!pom.isFile() || discovered.containsKey(dir.getCanonicalFile())) {
+                continue;
+            }
+            List<String> subModules = new ArrayList<>();
+            Module module = readPom(dir, pom, subModules);
+            discovered.put(dir.getCanonicalFile(), module);
+            if (root == null) {
+                root = module;
+            }
+            for (String subModule : subModules) {
+                // <module>可以写目录也可以直接写到pom文件
+                File subDir = new File(dir, subModule).toPath().normalize().toFile();
+                pending.add(subModule.endsWith(".xml") ? subDir.getParentFile() : subDir);
+            }
+        }
+        return root;
+    }
+
+    // 只取<project>下的artifactId、<modules>里的子模块、<dependency>的artifactId（dependencyManagement里的只是版本声明，不算）
+    private static Module readPom(File dir, File pom, List<String> subModules) throws IOException, XMLStreamException {
+        String artifactId = null;
+        Set<String> dependencies = new LinkedHashSet<>();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(pom))) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                Deque<String> path = new ArrayDeque<>();
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String parent = path.peek();
+                        String elementName = reader.getLocalName();
+                        path.push(elementName);
+                        if ("artifactId".equals(elementName) && path.size() == 2) {
+                            artifactId = reader.getElementText().trim();
+                            path.pop();
+                        } else if ("module".equals(elementName) && "modules".equals(parent)) {
+                            subModules.add(reader.getElementText().trim());
+                            path.pop();
+                        } else if ("artifactId".equals(elementName) && "dependency".equals(parent) && !path.contains("dependencyManagement")) {
+                            dependencies.add(reader.getElementText().trim());
+                            path.pop();
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        path.pop();
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        Module module = new Module(artifactId != null ? artifactId : dir.getName(), dir);
+        module.dependencyNames.addAll(dependencies);
+        return module;
+    }
+
+    private static File gradleSettings(File rootDir) {
+        for (String name : new String[]{"settings.gradle", "settings.gradle.kts"}) {
+            File settings = new File(rootDir, name);
+            if (settings.isFile()) {
+                return settings;
+            }
+        }
+        return null;
+    }
+
+    // include 'a', ':b:c' 或 include("a", "b")，可以跨行；项目路径:b:c对应目录b/c，自定义projectDir的不认
+    private static Module discoverGradle(File rootDir, Map<File, Module> discovered) throws IOException {
+        Module root = new Module(":", rootDir);
+        readGradleDependencies(rootDir, root);
+        discovered.put(rootDir.getCanonicalFile(), root);
+        List<String> lines = Files.readAllLines(gradleSettings(rootDir).toPath(), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (!line.startsWith("include")) {
+                continue;
+            }
+            StringBuilder statement = new StringBuilder(line);
+            while (line.endsWith(",") && i + 1 < lines.size()) {
+                line = lines.get(++i).trim();
+                statement.append(' ').append(line);
+            }
+            Matcher matcher = GRADLE_QUOTED.matcher(statement);
+            while (matcher.find()) {
+                String projectPath = matcher.group(1).startsWith(":") ? matcher.group(1) : ":" + matcher.group(1);
+                File dir = new File(rootDir, projectPath.substring(1).replace(':', File.separatorChar));
+                if (dir.isDirectory() && !discovered.containsKey(dir.getCanonicalFile())) {
+                    Module module = new Module(projectPath, dir);
+                    readGradleDependencies(dir, module);
+                    discovered.put(dir.getCanonicalFile(), module);
+                }
+            }
+        }
+        return root;
+    }
+
+    private static void readGradleDependencies(File dir, Module module) throws IOException {
+        for (String name : new String[]{"build.gradle", "build.gradle.kts"}) {
+            File buildFile = new File(dir, name);
+            if (buildFile.isFile()) {
+                Matcher matcher = GRADLE_PROJECT_DEPENDENCY.matcher(new String(Files.readAllBytes(buildFile.toPath()), StandardCharsets.UTF_8));
+                while (matcher.find()) {
+                    module.dependencyNames.add(matcher.group(1));
+                }
+            }
+        }
+    }
+
+    private static XMLInputFactory newXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    public List<Module> getModules() {
+        return modules;
+    }
+
+    public boolean isMultiModule() {
+        return modules.size() > 1;
+    }
+
+    /**
+     * 文件所在的模块，取目录离文件最近的那个
+     */
+    public Module moduleOf(String filePath) {
+        Module module = moduleOfPath.get(filePath);
+        if (module == null) {
+            module = root;
+            // 根目录带..或者是相对路径时，文件路径和模块目录都要规范化之后再比
+            String normalized = normalize(filePath);
+            for (Module candidate : modules) {
+                if (normalized.startsWith(candidate.dirPrefix)) {
+                    module = candidate;
+                    break;
+                }
+            }
+            moduleOfPath.put(filePath, module);
+        }
+        return module;
+    }
+
+    private static String normalize(String path) {
+        return new File(path).toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * from模块里的代码能不能用到to模块里的类：同一个模块，或者to在from的（传递）依赖里
+     */
+    public boolean canSee(Module from, Module to) {
+        return from == to || from == root || to == root || from.visible.contains(to);
+    }
+
+    public boolean canSee(String fromFilePath, String toFilePath) {
+        return !isMultiModule() || canSee(moduleOf(fromFilePath), moduleOf(toFilePath));
+    }
+}
@@ -0,0 +1,386 @@
+package org.fupo.javaeasyscan;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.Providers;
+import com.github.javaparser.ast.CompilationUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * @Describe 项目索引：源码目录只遍历一次、java文件只解析一次（用到时才解析，增量扫描时没变的文件不解析），结果交给各个扫描模块共用
+ * lean模式下不保留语法树和文件内容：解析时不挂注释，每个文件遍历完只留下调用索引里的摘要，内存占用和项目大小无关
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:12 2024/6/20
+ **/
+public class ProjectIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ProjectIndex.class);
+
+    private final File rootDir;
+    private final List<File> javaFiles = new ArrayList<>();
+    private final List<File> xmlFiles = new ArrayList<>();
+    // pom.xml、settings.gradle(.kts)、build.gradle(.kts)的路径、修改时间和大小，常驻进程里判断模块划分要不要重新找
+    private final StringBuilder buildFiles = new StringBuilder();
+    private ModuleGraph modules;
+    // --since时改动过的文件（绝对路径），只对这些文件跑规则；null表示不限
+    private Set<String> changedFiles;
+    // 解析失败的文件存Optional.empty()，避免重复解析
+    private final Map<File, Optional<CompilationUnit>> compilationUnits = new ConcurrentHashMap<>();
+    // key是文件绝对路径，取代码片段时直接从这里拿，不再重复读文件
+    private final Map<String, SourceFile> sources = new ConcurrentHashMap<>();
+    // JavaParser不是线程安全的，每个扫描线程各用一份
+    private final ScanExecutor.WorkerLocal<JavaParser> javaParser = ScanExecutor.workerLocal(() -> new JavaParser(newParserConfiguration()));
+    private volatile boolean lean;
+    private CallGraph callGraph;
+    // 预筛跳过了一部分文件时，调用链索引等第一次用到时再补全
+    private Supplier<CallGraph> deferredCallGraph;
+    // Java扫描任务正在建立调用链索引，其他模块要用时等它建好，不再自己扫一遍
+    private boolean callGraphPending;
+    private final Object resolutionLock = new Object();
+    private ResolutionService resolutionService;
+
+    private ProjectIndex(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    public static ProjectIndex build(File rootDir) {
+        ProjectIndex index = new ProjectIndex(rootDir);
+        ScanMetrics.Phase phase = ScanMetrics.phase("discover");
+        try {
+            index.collectFiles(rootDir);
+            index.modules = ModuleGraph.discover(rootDir);
+        } finally {
+            phase.end();
+        }
+        ScanMetrics.count("files.java", index.javaFiles.size());
+        ScanMetrics.count("files.xml", index.xmlFiles.size());
+        logger.info("index " + index.javaFiles.size() + " java files, " + index.xmlFiles.size() + " xml files");
+        return index;
+    }
+
+    // 一次遍历同时收集java和xml文件
+    private void collectFiles(File dir) {
+        if (dir.isDirectory()) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                collectFiles(file);
+            }
+        } else if (dir.getName().endsWith(".java")) {
+            javaFiles.add(dir);
+        } else {
+            if (dir.getName().endsWith(".xml")) {
+                xmlFiles.add(dir);
+            }
+            if (dir.getName().equals("pom.xml") || dir.getName().startsWith("settings.gradle") || dir.getName().startsWith("build.gradle")) {
+                buildFiles.append(dir.getPath()).append(':').append(dir.lastModified()).append(':').append(dir.length()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * 常驻进程里同一个项目的下一次扫描复用这个索引：重新遍历源码目录，修改时间或大小和previous里记的不一样的java文件、新增和删掉的java文件
+     * 丢掉缓存的语法树、内容和符号解析结果，其他文件的都留着；有java文件增删或者构建文件变了时，模块划分和符号解析服务整个重建
+     */
+    void refresh(ScanState previous) {
+        List<File> oldJavaFiles = new ArrayList<>(javaFiles);
+        String oldBuildFiles = buildFiles.toString();
+        javaFiles.clear();
+        xmlFiles.clear();
+        buildFiles.setLength(0);
+        collectFiles(rootDir);
+
+        Set<File> currentFiles = new HashSet<>(javaFiles);
+        List<File> changed = new ArrayList<>();
+        for (File javaFile : oldJavaFiles) {
+            if (!currentFiles.contains(javaFile)) {
+                changed.add(javaFile);
+            }
+        }
+        boolean structureChanged = !changed.isEmpty() || currentFiles.size() != oldJavaFiles.size() || !oldBuildFiles.equals(buildFiles.toString());
+        for (File javaFile : javaFiles) {
+            ScanState.FileSummary summary = previous.get(javaFile.getAbsolutePath());
+            if (summary == null || summary.lastModified == 0 || summary.lastModified != javaFile.lastModified() || summary.length != javaFile.length()) {
+                changed.add(javaFile);
+            }
+        }
+        Set<String> changedPaths = new HashSet<>();
+        for (File javaFile : changed) {
+            compilationUnits.remove(javaFile);
+            sources.remove(javaFile.getAbsolutePath());
+            changedPaths.add(javaFile.getAbsolutePath());
+        }
+        synchronized (this) {
+            callGraph = null;
+            deferredCallGraph = null;
+        }
+        synchronized (resolutionLock) {
+            if (structureChanged) {
+                modules = ModuleGraph.discover(rootDir);
+                resolutionService = null;
+            } else if (resolutionService != null && !changedPaths.isEmpty()) {
+                resolutionService.invalidate(changedPaths);
+            }
+        }
+        logger.info("refresh index: " + javaFiles.size() + " java files, " + changedPaths.size() + " changed" + (structureChanged ? ", modules and symbol resolution rebuilt" : ""));
+    }
+
+    private CompilationUnit parse(File javaFile, SourceFile source) {
+        try {
+            // 文件内容读一次，解析和后面取代码片段共用
+            if (source == null) {
+                source = getSource(javaFile);
+            }
+            ParseResult<CompilationUnit> parseResult;
+            ScanProfiler.Sample sample = ScanProfiler.begin();
+            ScanMetrics.Phase phase = ScanMetrics.phase("parse");
+            try {
+                parseResult = javaParser.get().parse(ParseStart.COMPILATION_UNIT, Providers.provider(source.getContent()));
+            } finally {
+                phase.end();
+            }
+            ScanProfiler.endParse(javaFile.getAbsolutePath(), sample);
+            if (parseResult.getResult().isPresent()) {
+                CompilationUnit cu = parseResult.getResult().get();
+                cu.setStorage(javaFile.toPath());
+                return cu;
+            }
+            ScanMetrics.count("parse.failures");
+            logger.warn("Failed to parse file: " + javaFile.getAbsolutePath() + " " + parseResult.getProblems());
+        } catch (IOException e) {
+            ScanMetrics.count("parse.failures");
+            logger.warn("Failed to parse file: " + javaFile.getAbsolutePath(), e);
+        }
+        return null;
+    }
+
+    /**
+     * lean模式的解析配置：不把注释挂到节点上、不做词法保留；token要留着，节点的行号是从token上算出来的
+     */
+    ParserConfiguration newParserConfiguration() {
+        ParserConfiguration configuration = new ParserConfiguration();
+        if (lean) {
+            configuration.setAttributeComments(false);
+            configuration.setLexicalPreservationEnabled(false);
+        }
+        return configuration;
+    }
+
+    /**
+     * 开始扫描之前设置，扫描线程第一次解析时按这里创建解析器
+     */
+    public void setLean(boolean lean) {
+        this.lean = lean;
+    }
+
+    public boolean isLean() {
+        return lean;
+    }
+
+    public File getRootDir() {
+        return rootDir;
+    }
+
+    public List<File> getJavaFiles() {
+        return javaFiles;
+    }
+
+    public List<File> getXmlFiles() {
+        return xmlFiles;
+    }
+
+    /**
+     * 开始扫描之前设置，之后只对这些文件跑规则，结果只留这些文件里的和调用链经过这些文件的，null表示扫描所有文件
+     */
+    public void setChangedFiles(Set<String> changedFiles) {
+        this.changedFiles = changedFiles;
+    }
+
+    public Set<String> getChangedFiles() {
+        return changedFiles;
+    }
+
+    /**
+     * 文件是否在这次扫描的改动范围内，没有设置改动范围时总是true
+     */
+    public boolean inScope(File file) {
+        return changedFiles == null || changedFiles.contains(file.getAbsolutePath());
+    }
+
+    /**
+     * Maven/Gradle的模块划分，单模块项目只有一个模块
+     */
+    public ModuleGraph getModules() {
+        return modules;
+    }
+
+    /**
+     * 第一次取时在当前线程解析，解析失败的文件返回null；lean模式下不保留，用完即释放
+     */
+    public CompilationUnit getCompilationUnit(File javaFile) {
+        return getCompilationUnit(javaFile, null);
+    }
+
+    /**
+     * source是调用方已经读好的文件内容（比如预筛时读的），lean模式下不缓存文件内容，这样解析时不用再读一遍；为null时这里读
+     */
+    CompilationUnit getCompilationUnit(File javaFile, SourceFile source) {
+        if (lean) {
+            return parse(javaFile, source);
+        }
+        Optional<CompilationUnit> cu = compilationUnits.get(javaFile);
+        if (cu == null) {
+            cu = Optional.ofNullable(parse(javaFile, source));
+            compilationUnits.put(javaFile, cu);
+        }
+        return cu.orElse(null);
+    }
+
+    public SourceFile getSource(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        SourceFile source = sources.get(path);
+        if (source == null) {
+            ScanMetrics.Phase phase = ScanMetrics.phase("read");
+            try {
+                source = SourceFile.read(file);
+            } finally {
+                phase.end();
+            }
+            ScanMetrics.count("files.read");
+            ScanMetrics.count("chars.read", source.getContent().length());
+            // lean模式下不缓存文件内容，取代码片段时重新读
+            if (!lean) {
+                sources.put(path, source);
+            }
+        }
+        return source;
+    }
+
+    /**
+     * 取filePath第lineNumber行的内容（从1开始），读不到返回空串
+     */
+    public String getLineContent(String filePath, int lineNumber) {
+        if (lineNumber > 0) {
+            try {
+                return getSource(new File(filePath)).getLine(lineNumber);
+            } catch (IOException e) {
+                logger.warn("Failed to read line " + lineNumber + " of " + filePath, e);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * 取filePath第lineNumber行前后各radius行，读不到返回空串
+     */
+    public String getLineContext(String filePath, int lineNumber, int radius) {
+        if (lineNumber > 0) {
+            try {
+                return getSource(new File(filePath)).getContext(lineNumber, radius);
+            } catch (IOException e) {
+                logger.warn("Failed to read line " + lineNumber + " of " + filePath, e);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * 反向调用索引在ScanEngine遍历语法树时顺便建立，没有扫描过时单独遍历一次来建立，之后各模块共用
+     */
+    public synchronized CallGraph getCallGraph() {
+        while (callGraphPending) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the call graph", e);
+            }
+        }
+        if (callGraph == null && deferredCallGraph != null) {
+            callGraph = deferredCallGraph.get();
+            deferredCallGraph = null;
+        }
+        if (callGraph == null) {
+            ScanEngine.scan(this, Collections.emptyList());
+        }
+        return callGraph;
+    }
+
+    /**
+     * 马上会有ScanEngine.scan来建立调用链索引，在这之前getCallGraph()先等着
+     */
+    synchronized void expectCallGraph() {
+        callGraphPending = true;
+    }
+
+    /**
+     * 扫描结束时调用：正常结束时调用链索引已经设好了；扫描失败时放开等着的getCallGraph()，让它自己去建
+     */
+    synchronized void cancelCallGraph() {
+        callGraphPending = false;
+        notifyAll();
+    }
+
+    synchronized void setCallGraph(CallGraph callGraph) {
+        this.callGraph = callGraph;
+        this.deferredCallGraph = null;
+        this.callGraphPending = false;
+        notifyAll();
+    }
+
+    synchronized void deferCallGraph(Supplier<CallGraph> deferredCallGraph) {
+        this.callGraph = null;
+        this.deferredCallGraph = deferredCallGraph;
+        this.callGraphPending = false;
+        notifyAll();
+    }
+
+    /**
+     * 常驻进程不再保留这个项目时调用：丢掉缓存的语法树、文件内容、调用链索引和符号解析服务
+     */
+    void release() {
+        compilationUnits.clear();
+        sources.clear();
+        synchronized (this) {
+            callGraph = null;
+            deferredCallGraph = null;
+        }
+        synchronized (resolutionLock) {
+            if (resolutionService != null) {
+                resolutionService.release();
+                resolutionService = null;
+            }
+        }
+    }
+
+    /**
+     * 符号解析服务，第一次用到时才去找源码目录
+     */
+    public ResolutionService getResolutionService() {
+        // 不和getCallGraph共用锁：补全调用链索引时会在扫描线程里用到这里
+        synchronized (resolutionLock) {
+            if (resolutionService == null) {
+                resolutionService = new ResolutionService(this);
+            }
+            return resolutionService;
+        }
+    }
+
+    /**
+     * 把cu的symbolResolver换成当前线程自己的那份，避免多个线程共用同一个solver
+     */
+    public void bindSymbolResolver(CompilationUnit cu) {
+        getResolutionService().bind(cu);
+    }
+}
@@ -0,0 +1,22 @@
+package org.fupo.javaeasyscan;
+
+import java.io.Closeable;
+
+/**
+ * @Describe 扫描模块输出结果的地方：发现一条就add一条，由ResultUtil按--format决定写成html、sarif还是jsonl
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:26 2024/6/24
+ **/
+public interface ReportSink extends Closeable {
+
+    void add(Finding finding);
+
+    /**
+     * 发现的结果数，包括报告里已经有的
+     */
+    int size();
+
+    @Override
+    void close();
+}
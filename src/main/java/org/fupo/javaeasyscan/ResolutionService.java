@@ -0,0 +1,424 @@
+package org.fupo.javaeasyscan;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.resolution.MethodUsage;
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.resolution.types.ResolvedType;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.javaparser.Navigator;
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+import com.github.javaparser.symbolsolver.model.resolution.SymbolReference;
+import com.github.javaparser.symbolsolver.model.resolution.TypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @Describe 符号解析服务，各模块共用：JDK的类用ReflectionTypeSolver，项目里的类用源码目录上的SourceTypeSolver
+ * 解析结果按调用点和类型名缓存，同一个调用点只解析一次；同一个类型的方法表只取一次，方法名和参数个数能唯一确定方法时不再走完整的方法解析
+ * 多模块项目里每个模块的文件只在自己和（传递）依赖模块的源码目录里找类型
+ * 常驻进程里跨扫描复用，文件改过时只丢掉和这些文件有关的缓存（invalidate）
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 15:30 2024/6/26
+ **/
+public class ResolutionService {
+    private static final Logger logger = LoggerFactory.getLogger(ResolutionService.class);
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    private static final String[] CONVENTIONAL_ROOTS = {"src/main/java", "src/test/java"};
+    // 每个线程每个源码目录最多缓存多少个解析过的文件
+    private static final long CACHE_SIZE = 4096;
+    private static final long LEAN_CACHE_SIZE = 256;
+
+    // 源码根目录 -> 这个目录下按文件路径推出来的类型全名
+    private final Map<File, Set<String>> sourceRoots;
+    private final ProjectIndex index;
+    // 解析器都不是线程安全的，每个扫描线程各用一份，缓存里只放字符串，各线程共用
+    private final ScanExecutor.WorkerLocal<Solvers> solvers = ScanExecutor.workerLocal(Solvers::new);
+    // key是文件路径:行:列，解析不出来的存Optional.empty()
+    private final Map<String, Optional<String>> callSiteSignatures = new ConcurrentHashMap<>();
+    // key是类型全名，value是方法名到方法列表（含继承来的），解析不出来的类型存空表
+    private final Map<String, Map<String, List<MethodInfo>>> typeMethods = new ConcurrentHashMap<>();
+    // 所有线程创建过的SourceTypeSolver，文件改过时逐个作废
+    private final List<SourceTypeSolver> sourceTypeSolvers = new CopyOnWriteArrayList<>();
+
+    private static class MethodInfo {
+        final int arity;
+        final boolean variadic;
+        final String qualifiedSignature;
+
+        MethodInfo(int arity, boolean variadic, String qualifiedSignature) {
+            this.arity = arity;
+            this.variadic = variadic;
+            this.qualifiedSignature = qualifiedSignature;
+        }
+    }
+
+    /**
+     * 一个扫描线程的解析器：每个源码目录只有一个SourceTypeSolver，各模块的CombinedTypeSolver共用，内存随线程数×源码目录数增长，和模块数无关
+     * typeSolvers按模块各一份，key是null的包含所有源码目录，单模块项目和按全限定名取方法表时用
+     */
+    private class Solvers {
+        final JavaParser javaParser = new JavaParser(index.newParserConfiguration());
+        final Map<File, SourceTypeSolver> sourceTypeSolvers = new HashMap<>();
+        final Map<ModuleGraph.Module, CombinedTypeSolver> typeSolvers = new HashMap<>();
+        final Map<ModuleGraph.Module, JavaSymbolSolver> symbolSolvers = new HashMap<>();
+
+        // module为null时包含所有源码目录
+        CombinedTypeSolver typeSolver(ModuleGraph.Module module) {
+            CombinedTypeSolver combinedTypeSolver = typeSolvers.get(module);
+            if (combinedTypeSolver == null) {
+                combinedTypeSolver = new CombinedTypeSolver();
+                combinedTypeSolver.add(new ReflectionTypeSolver());
+                ModuleGraph modules = index.getModules();
+                for (File root : sourceRoots.keySet()) {
+                    if (module == null || modules.canSee(module, modules.moduleOf(root.getAbsolutePath()))) {
+                        combinedTypeSolver.add(sourceTypeSolver(root));
+                    }
+                }
+                typeSolvers.put(module, combinedTypeSolver);
+            }
+            return combinedTypeSolver;
+        }
+
+        SourceTypeSolver sourceTypeSolver(File root) {
+            SourceTypeSolver sourceTypeSolver = sourceTypeSolvers.get(root);
+            if (sourceTypeSolver == null) {
+                ModuleGraph modules = index.getModules();
+                ModuleGraph.Module home = modules.isMultiModule() ? modules.moduleOf(root.getAbsolutePath()) : null;
+                // lean模式下缓存LEAN_CACHE_SIZE个解析过的文件，默认CACHE_SIZE个
+                sourceTypeSolver = new SourceTypeSolver(root, sourceRoots.get(root), javaParser, index.isLean() ? LEAN_CACHE_SIZE : CACHE_SIZE,
+                        () -> typeSolver(home));
+                sourceTypeSolvers.put(root, sourceTypeSolver);
+                ResolutionService.this.sourceTypeSolvers.add(sourceTypeSolver);
+            }
+            return sourceTypeSolver;
+        }
+    }
+
+    ResolutionService(ProjectIndex index) {
+        this.index = index;
+        this.sourceRoots = findSourceRoots(index);
+        logger.info("resolution: " + sourceRoots.size() + " source roots");
+    }
+
+    /**
+     * 一个源码目录上的类型解析，代替JavaParserTypeSolver：只解析项目里确实有源文件的类型（包括它的内部类），其他类型直接返回解析不到，
+     * 不会像JavaParserTypeSolver那样找不到类型时把整个包目录解析一遍；解析过的文件按路径缓存，文件改过时可以单独作废
+     * 和JavaParserTypeSolver一样不是线程安全的，每个线程各用一份；同一个线程里被多个模块的CombinedTypeSolver共用，
+     * 找到的声明固定交给源码目录所在模块的CombinedTypeSolver去解析它引用的类型
+     */
+    private static class SourceTypeSolver implements TypeSolver {
+        private final File root;
+        private final Set<String> typeNames;
+        private final JavaParser javaParser;
+        // 文件绝对路径 -> 语法树，解析失败的存Optional.empty()，只留最近用过的cacheSize个
+        private final Map<String, Optional<CompilationUnit>> parsedFiles;
+        private final Map<String, SymbolReference<ResolvedReferenceTypeDeclaration>> foundTypes = new HashMap<>();
+        // 源码目录所在模块的CombinedTypeSolver，用到时才建
+        private final Supplier<TypeSolver> home;
+
+        SourceTypeSolver(File root, Set<String> typeNames, JavaParser javaParser, long cacheSize, Supplier<TypeSolver> home) {
+            this.root = root;
+            this.typeNames = typeNames;
+            this.javaParser = javaParser;
+            this.home = home;
+            this.parsedFiles = new LinkedHashMap<String, Optional<CompilationUnit>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Optional<CompilationUnit>> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+        }
+
+        @Override
+        public TypeSolver getParent() {
+            return home.get();
+        }
+
+        // 加进别的模块的CombinedTypeSolver时也会调用，不换
+        @Override
+        public void setParent(TypeSolver parent) {
+        }
+
+        @Override
+        public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+            SymbolReference<ResolvedReferenceTypeDeclaration> found = foundTypes.get(name);
+            if (found == null) {
+                found = solveUncached(name);
+                foundTypes.put(name, found);
+            }
+            return found;
+        }
+
+        // name是类型全名，内部类是外部类全名.内部类名
+        private SymbolReference<ResolvedReferenceTypeDeclaration> solveUncached(String name) {
+            String typeName = name;
+            while (!typeNames.contains(typeName)) {
+                int dot = typeName.lastIndexOf('.');
+                if (dot < 0) {
+                    return SymbolReference.unsolved(ResolvedReferenceTypeDeclaration.class);
+                }
+                typeName = typeName.substring(0, dot);
+            }
+            File file = new File(root, typeName.replace('.', File.separatorChar) + ".java");
+            Optional<CompilationUnit> cu = parsedFiles.computeIfAbsent(file.getAbsolutePath(), path -> parse(file));
+            // 从文件里的顶层类型开始的相对名字，比如Outer.Inner
+            String relativeName = name.substring(name.lastIndexOf('.', typeName.length() - 1) + 1);
+            Optional<TypeDeclaration<?>> typeDeclaration = cu.flatMap(c -> Navigator.findType(c, relativeName));
+            if (!typeDeclaration.isPresent()) {
+                return SymbolReference.unsolved(ResolvedReferenceTypeDeclaration.class);
+            }
+            // 声明从这个solver往上找根solver去解析它引用的类型
+            return SymbolReference.solved(JavaParserFacade.get(this).getTypeDeclaration(typeDeclaration.get()));
+        }
+
+        private Optional<CompilationUnit> parse(File file) {
+            try {
+                ParseResult<CompilationUnit> parseResult = javaParser.parse(file.toPath());
+                parseResult.getResult().ifPresent(cu -> cu.setStorage(file.toPath()));
+                return parseResult.getResult();
+            } catch (IOException e) {
+                return Optional.empty();
+            }
+        }
+
+        // 改过的文件重新解析；找到过的类型可能来自改过的文件，也可能继承了改过的类型，全部重新找，解析过的其他文件还在缓存里
+        void invalidate(Set<String> filePaths) {
+            parsedFiles.keySet().removeAll(filePaths);
+            foundTypes.clear();
+        }
+    }
+
+    /**
+     * 源码根目录：Maven/Gradle约定的src/main/java、src/test/java直接从路径判断，其他文件按package声明往上推
+     */
+    private static Map<File, Set<String>> findSourceRoots(ProjectIndex index) {
+        Map<File, Set<String>> roots = new LinkedHashMap<>();
+        for (File javaFile : index.getJavaFiles()) {
+            String path = javaFile.getAbsolutePath().replace(File.separatorChar, '/');
+            File root = null;
+            for (String conventionalRoot : CONVENTIONAL_ROOTS) {
+                int pos = path.indexOf("/" + conventionalRoot + "/");
+                if (pos >= 0) {
+                    root = new File(path.substring(0, pos + conventionalRoot.length() + 1));
+                    break;
+                }
+            }
+            if (root == null) {
+                root = rootFromPackage(index, javaFile);
+            }
+            if (root != null) {
+                String relativePath = path.substring(root.getAbsolutePath().replace(File.separatorChar, '/').length() + 1);
+                String typeName = relativePath.substring(0, relativePath.length() - ".java".length()).replace('/', '.');
+                roots.computeIfAbsent(root, k -> new HashSet<>()).add(typeName);
+            }
+        }
+        return roots;
+    }
+
+    private static File rootFromPackage(ProjectIndex index, File javaFile) {
+        try {
+            Matcher matcher = PACKAGE.matcher(index.getSource(javaFile).getContent());
+            File root = javaFile.getAbsoluteFile().getParentFile();
+            if (matcher.find()) {
+                String[] segments = matcher.group(1).split("\\.");
+                for (int i = segments.length - 1; i >= 0 && root != null; i--) {
+                    // 目录和包名对不上时不算源码目录，免得类型解析找错文件
+                    if (!root.getName().equals(segments[i])) {
+                        return null;
+                    }
+                    root = root.getParentFile();
+                }
+            }
+            return root;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 常驻进程里两次扫描之间调用（这时没有线程在解析）：filePaths里的文件（绝对路径）改过了，丢掉这些文件里调用点的解析结果和解析过的语法树；
+     * 项目里类型的方法表可能来自改过的文件或者继承了改过的类型，都重新取，JDK类型的留着
+     */
+    void invalidate(Set<String> filePaths) {
+        // key是文件路径:行:列
+        callSiteSignatures.keySet().removeIf(key -> {
+            int column = key.lastIndexOf(':');
+            return filePaths.contains(key.substring(0, key.lastIndexOf(':', column - 1)));
+        });
+        typeMethods.keySet().removeIf(this::isProjectType);
+        for (SourceTypeSolver sourceTypeSolver : sourceTypeSolvers) {
+            sourceTypeSolver.invalidate(filePaths);
+        }
+        // 按节点缓存的表达式类型可能指向改过的文件里的旧声明
+        JavaParserFacade.clearInstances();
+    }
+
+    /**
+     * 项目从常驻进程里移除时调用：丢掉所有解析结果和各线程解析过的语法树
+     */
+    void release() {
+        callSiteSignatures.clear();
+        typeMethods.clear();
+        sourceTypeSolvers.clear();
+        JavaParserFacade.clearInstances();
+    }
+
+    private boolean isProjectType(String name) {
+        for (Set<String> typeNames : sourceRoots.values()) {
+            for (String typeName = name; ; typeName = typeName.substring(0, typeName.lastIndexOf('.'))) {
+                if (typeNames.contains(typeName)) {
+                    return true;
+                }
+                if (typeName.indexOf('.') < 0) {
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    public Set<File> getSourceRoots() {
+        return sourceRoots.keySet();
+    }
+
+    /**
+     * 把cu的symbolResolver换成当前线程自己的那份
+     */
+    public void bind(CompilationUnit cu) {
+        ModuleGraph modules = index.getModules();
+        ModuleGraph.Module module = modules.isMultiModule() && cu.getStorage().isPresent()
+                ? modules.moduleOf(cu.getStorage().get().getPath().toString())
+                : null;
+        Solvers current = solvers.get();
+        cu.setData(Node.SYMBOL_RESOLVER_KEY, current.symbolSolvers.computeIfAbsent(module, m -> new JavaSymbolSolver(current.typeSolver(m))));
+    }
+
+    /**
+     * 方法调用的全限定签名，比如java.lang.ProcessBuilder.start()，解析不出来返回null
+     */
+    public String resolveSignature(String filePath, MethodCallExpr methodCall) {
+        ScanMetrics.count("resolve.calls");
+        String key = methodCall.getBegin().isPresent()
+                ? filePath + ":" + methodCall.getBegin().get().line + ":" + methodCall.getBegin().get().column
+                : null;
+        if (key != null) {
+            Optional<String> cached = callSiteSignatures.get(key);
+            if (cached != null) {
+                ScanMetrics.count("resolve.cached");
+                return cached.orElse(null);
+            }
+        }
+        String signature;
+        ScanMetrics.Phase phase = ScanMetrics.phase("resolve");
+        try {
+            methodCall.findCompilationUnit().ifPresent(this::bind);
+            signature = signatureFromType(methodCall);
+            if (signature == null) {
+                signature = fullResolve(methodCall);
+            }
+        } finally {
+            phase.end();
+        }
+        if (key != null) {
+            callSiteSignatures.put(key, Optional.ofNullable(signature));
+        }
+        return signature;
+    }
+
+    // 先只解析调用对象的类型，类型的方法表里按方法名和参数个数只有一个候选时直接用，不做重载匹配
+    private String signatureFromType(MethodCallExpr methodCall) {
+        if (!methodCall.getScope().isPresent()) {
+            return null;
+        }
+        String typeName = resolveTypeName(methodCall.getScope().get());
+        if (typeName == null) {
+            return null;
+        }
+        List<MethodInfo> candidates = getMethods(typeName).get(methodCall.getNameAsString());
+        if (candidates == null) {
+            return null;
+        }
+        String signature = null;
+        for (MethodInfo candidate : candidates) {
+            if (candidate.variadic) {
+                return null;
+            }
+            if (candidate.arity == methodCall.getArguments().size()) {
+                if (signature != null) {
+                    return null;
+                }
+                signature = candidate.qualifiedSignature;
+            }
+        }
+        if (signature != null) {
+            ScanMetrics.count("resolve.byType");
+        }
+        return signature;
+    }
+
+    private String resolveTypeName(Expression scope) {
+        try {
+            ResolvedType type = scope.calculateResolvedType();
+            return type.isReferenceType() ? type.asReferenceType().getQualifiedName() : null;
+        } catch (Exception | StackOverflowError e) {
+            return null;
+        }
+    }
+
+    private String fullResolve(MethodCallExpr methodCall) {
+        ScanMetrics.count("resolve.full");
+        try {
+            return methodCall.resolve().getQualifiedSignature();
+        } catch (Exception | StackOverflowError e) {
+            ScanMetrics.count("resolve.failures");
+            return null;
+        }
+    }
+
+    /**
+     * 类型的方法表（含继承来的方法），同一个类型只取一次
+     */
+    private Map<String, List<MethodInfo>> getMethods(String typeName) {
+        Map<String, List<MethodInfo>> methods = typeMethods.get(typeName);
+        if (methods == null) {
+            methods = loadMethods(typeName);
+            typeMethods.put(typeName, methods);
+        }
+        return methods;
+    }
+
+    private Map<String, List<MethodInfo>> loadMethods(String typeName) {
+        Map<String, List<MethodInfo>> methods = new HashMap<>();
+        try {
+            SymbolReference<ResolvedReferenceTypeDeclaration> type = solvers.get().typeSolver(null).tryToSolveType(typeName);
+            if (type.isSolved()) {
+                for (MethodUsage method : type.getCorrespondingDeclaration().getAllMethods()) {
+                    methods.computeIfAbsent(method.getName(), k -> new ArrayList<>()).add(new MethodInfo(
+                            method.getNoParams(), method.getDeclaration().hasVariadicParameter(), method.getDeclaration().getQualifiedSignature()));
+                }
+            }
+        } catch (Exception | StackOverflowError e) {
+            // 父类型解析不出来时整个方法表作废，这个类型的调用都走完整解析
+            methods.clear();
+        }
+        return methods;
+    }
+}
@@ -3,18 +3,12 @@ package org.fupo.javaeasyscan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.*;
 
 /**
  * @Describe 报告生成
@@ -24,133 +18,350 @@ import java.util.stream.Collectors;
  **/
 public class ResultUtil {
     private static final Logger logger = LoggerFactory.getLogger(ResultUtil.class);
-    public static void generateHtmlReport(List<String> results, String topic) {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
-        String timestamp = sdf.format(new Date());
-        String filePath = "audit_report_" + timestamp + ".html";
-        boolean fileExists = new File(filePath).exists();
+    private static final List<String> FORMATS = Arrays.asList("html", "sarif", "jsonl");
+    private static String format = "html";
+    // sarif/jsonl整个运行只写一个文件，所有模块共用
+    private static StructuredReport structuredReport;
+    // 不为空时结果不写文件，都收集到这里（常驻进程模式用）
+    private static List<Finding> collector;
+    private static final String INDEX_SUFFIX = ".idx";
+    // 报告旁边的去重索引，key是报告路径，value是报告里已有结果的指纹，每次运行只从磁盘读一次
+    private static final Map<String, Set<String>> reportIndexes = new HashMap<>();
+
+    /**
+     * html报告的输出：内容直接经缓冲写到临时文件里，不在内存里攒整份报告
+     * 每条结果算一个指纹，报告里已经有的直接跳过；close时把新结果追加到报告里，报告文件第一次创建时写一次页头页尾
+     */
+    private static class HtmlReportSink implements ReportSink {
+        private final String topic;
+        private final String reportPath;
+        private final Set<String> reportIndex;
+        private final List<String> newFingerprints = new ArrayList<>();
+        private final File tempFile;
+        private final PrintWriter writer;
+        private int count;
+
+        private HtmlReportSink(String topic) throws IOException {
+            this.topic = topic;
+            this.reportPath = reportPath("html");
+            this.reportIndex = reportIndex(reportPath);
+            this.tempFile = File.createTempFile("javaeasyscan", ".part");
+            this.writer = new PrintWriter(new BufferedWriter(new FileWriter(tempFile)));
+        }
+
+        @Override
+        public synchronized void add(Finding finding) {
+            count++;
+            String result = finding.toHtml();
+            String fingerprint = fingerprint(topic, result);
+            synchronized (reportIndex) {
+                if (!reportIndex.add(fingerprint)) {
+                    return;
+                }
+            }
+            newFingerprints.add(fingerprint);
+            writer.println("<div class='container'>");
+            writer.printf("<div class='title'>%s %d <span class='arrow'>&#9654;</span></div>%n", topic, newFingerprints.size());
+            writer.println("<div class='content'>");
+            writer.printf("<p>%s</p>%n", result.replace("\n", "<br>"));
+            writer.println("</div>");
+            writer.println("</div>");
+        }
 
-        //防止多次扫描的结果相同导致的重复数据追加，具体实现：往页面里加哈希，然后读取html内容查看是否包含已有的哈希，真是聪明 ≥︺‿︺≤
-        String newContentHash = generateHash(results);
-        StringBuilder existingContent = new StringBuilder();
-        if (fileExists) {
+        @Override
+        public synchronized int size() {
+            return count;
+        }
+
+        @Override
+        public synchronized void close() {
+            writer.close();
             try {
-                List<String> lines = Files.readAllLines(Paths.get(filePath));
-                for (String line : lines) {
-                    existingContent.append(line).append("\n");
+                if (!newFingerprints.isEmpty()) {
+                    appendToReport(reportPath, tempFile, newFingerprints);
+                } else if (count > 0) {
+                    logger.info("no new content to add, report is latest");
                 }
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                tempFile.delete();
             }
         }
-        if (existingContent.toString().contains(newContentHash)) {
-            logger.info("no new content to add, report is latest");
-            return;
+    }
+
+    // sarif/jsonl的输出，直接交给整个运行共用的StructuredReport
+    private static class StructuredReportSink implements ReportSink {
+        private final StructuredReport report;
+        private int count;
+
+        private StructuredReportSink(StructuredReport report) {
+            this.report = report;
+        }
+
+        @Override
+        public synchronized void add(Finding finding) {
+            count++;
+            report.write(finding);
         }
 
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath, true))) {
-            if (!fileExists) {
-                writer.println("<html>");
-                writer.println("<head>");
-                writer.println("<title>Fupo JavaEasyScan Result</title>");
-                writer.println("<style>");
-                writer.println("body { font-family: Arial, sans-serif; margin: 0; padding: 0; background-color: #f4f4f9; color: #333; }");
-                writer.println("h1 { text-align: center; color: #333; margin: 20px 0; }");
-                writer.println(".navbar { display: flex; justify-content: space-between; align-items: center; background-color: #355678; padding: 10px; text-align: center; border-radius: 0; margin-bottom: 20px; position: sticky; top: 0; z-index: 1000; transition: background-color 0.3s; }");
-                writer.println(".navbar-logo { color: white; font-size: 24px; font-weight: bold; }");
-                writer.println(".navbar-menu { display: flex; }");
-                writer.println(".navbar a { color: white; text-decoration: none; font-size: 18px; margin: 0 15px; position: relative; }");
-                writer.println(".modal { display: none; position: fixed; z-index: 1000; left: 50%; top: 50%; width: 300px; padding: 20px; background: white; border: 1px solid #ccc; border-radius: 10px; transform: translate(-50%, -50%); box-shadow: 0 0 10px rgba(0, 0, 0, 0.5); }");
-                writer.println(".modal-header { font-size: 18px; font-weight: bold; margin-bottom: 10px; }");
-                writer.println(".modal-content { font-size: 14px; margin-bottom: 20px; }");
-                writer.println(".modal-close { background: #355678; color: white; border: none; padding: 5px 10px; cursor: pointer; border-radius: 5px; }");
-                writer.println(".container { margin: 20px auto; padding: 0 20px; max-width: 800px; border-radius: 8px; }");
-                writer.println(".title { font-size: 18px; font-weight: bold; cursor: pointer; padding: 10px; background: #355678; color: white; border-radius: 8px 8px 0 0; display: flex; justify-content: space-between; align-items: center; }");
-                writer.println(".content { display: none; padding: 10px; border: 1px solid #ddd; border-top: none; border-radius: 0 0 8px 8px; background: white; }");
-                writer.println(".content p { margin: 0; white-space: pre-wrap; }");
-                writer.println(".arrow { font-size: 12px; margin-left: 10px; transition: transform 0.2s; }");
-                writer.println(".title:hover { background: #0056b3; }");
-                writer.println("</style>");
-                writer.println("</head>");
-                writer.println("<body>");
-                writer.println("<div class='navbar'><div class='navbar-logo'>Fupo JavaEasyScanner</div><div class='navbar-menu'><a href='https://novysodope.github.io/'>Home</a><a href='https://github.com/novysodope'>Github</a><a href='https://github.com/novysodope/javaeasyscan' id='about-link'>About</a></div></div>");
-                writer.println("<h1>Detailed report</h1>");
-                writer.println("<div class='modal' id='about-modal'><div class='modal-header'>关于富婆</div><div class='modal-content'>有关本工具的更多信息请移步到Github，如果可以，还可以顺便star一下，后续还会更新漏洞审计和优化分析流程</div><button class='modal-close'>Close</button></div>");
+        @Override
+        public synchronized int size() {
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // 常驻进程模式的输出，结果按模块顺序放进列表，由调用方转成JSON返回
+    private static class CollectingReportSink implements ReportSink {
+        private final List<Finding> findings;
+        private int count;
+
+        private CollectingReportSink(List<Finding> findings) {
+            this.findings = findings;
+        }
+
+        @Override
+        public void add(Finding finding) {
+            synchronized (findings) {
+                count++;
+                findings.add(finding);
             }
+        }
 
-            for (int i = 0; i < results.size(); i++) {
-                writer.println("<div class='container'>");
-                writer.printf("<div class='title'>%s %d <span class='arrow'>&#9654;</span></div>%n", topic, i + 1);
-                writer.println("<div class='content'>");
-                writer.printf("<p>%s</p>%n", results.get(i).replace("\n", "<br>"));
-                writer.println("</div>");
-                writer.println("</div>");
+        @Override
+        public int size() {
+            synchronized (findings) {
+                return count;
             }
+        }
 
-            if (!fileExists) {
-                writer.println("<script>");
-                writer.println("document.addEventListener('DOMContentLoaded', function() {");
-                writer.println("    var navbar = document.querySelector('.navbar');");
-                writer.println("    var aboutLink = document.getElementById('about-link');");
-                writer.println("    var aboutModal = document.getElementById('about-modal');");
-                writer.println("    var closeModal = document.querySelector('.modal-close');");
-                writer.println("    aboutLink.addEventListener('click', function(event) {");
-                writer.println("        event.preventDefault();");
-                writer.println("        aboutModal.style.display = 'block';");
-                writer.println("    });");
-                writer.println("    closeModal.addEventListener('click', function() {");
-                writer.println("        aboutModal.style.display = 'none';");
-                writer.println("    });");
-                writer.println("    window.addEventListener('scroll', function() {");
-                writer.println("        if (window.scrollY > 50) {");
-                writer.println("            navbar.style.backgroundColor = 'rgba(53, 86, 120, 0.5)';");
-                writer.println("        } else {");
-                writer.println("            navbar.style.backgroundColor = '#355678';");
-                writer.println("        }");
-                writer.println("    });");
-                writer.println("    document.querySelectorAll('.title').forEach(title => {");
-                writer.println("        title.addEventListener('click', () => {");
-                writer.println("            const content = title.nextElementSibling;");
-                writer.println("            const arrow = title.querySelector('.arrow');");
-                writer.println("            if (content.style.display === 'block') {");
-                writer.println("                content.style.display = 'none';");
-                writer.println("                arrow.innerHTML = '&#9654;';");
-                writer.println("                arrow.style.transform = 'rotate(0deg)';");
-                writer.println("            } else {");
-                writer.println("                content.style.display = 'block';");
-                writer.println("                arrow.innerHTML = '&#9660;';");
-                writer.println("                arrow.style.transform = 'rotate(90deg)';");
-                writer.println("            }");
-                writer.println("        });");
-                writer.println("    });");
-                writer.println("});");
-                writer.println("</script>");
-                writer.println("</body>");
-                writer.println("</html>");
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 报告格式：html（默认）、sarif、jsonl
+     */
+    public static void setFormat(String format) {
+        if (!FORMATS.contains(format)) {
+            throw new IllegalArgumentException("Unsupported format: " + format + ", expected one of " + FORMATS);
+        }
+        ResultUtil.format = format;
+    }
+
+    /**
+     * findings不为空时之后打开的输出都不写文件，结果收集到findings里；传null恢复写文件
+     */
+    public static synchronized void collectTo(List<Finding> findings) {
+        collector = findings;
+    }
+
+    /**
+     * 某个话题没有结果时的提示：写报告文件时打到控制台；结果收集到内存里时（--daemon、--watch）标准输出要留给结果流，只写日志
+     */
+    public static void notFound(String topic) {
+        boolean collecting;
+        synchronized (ResultUtil.class) {
+            collecting = collector != null;
+        }
+        if (collecting) {
+            logger.info(topic + ": not found result");
+        } else {
+            System.out.println("\nnot found result\n");
+        }
+    }
+
+    public static ReportSink openSink(String topic) {
+        List<Finding> findings;
+        synchronized (ResultUtil.class) {
+            findings = collector;
+        }
+        if (findings != null) {
+            return new CollectingReportSink(findings);
+        }
+        try {
+            if ("html".equals(format)) {
+                return new HtmlReportSink(topic);
             }
-            writer.println("<!-- report hash: " + newContentHash + " -->");
-            logger.info("create report: " + filePath);
+            return new StructuredReportSink(structuredReport());
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static synchronized StructuredReport structuredReport() throws IOException {
+        if (structuredReport == null) {
+            String filePath = reportPath(format);
+            structuredReport = new StructuredReport(format, filePath);
+            logger.info("create report: " + filePath);
+        }
+        return structuredReport;
+    }
+
+    /**
+     * 所有模块都输出完之后调用，sarif需要在最后补上结尾；去重索引已经写到磁盘上了，内存里的可以清掉
+     */
+    public static synchronized void finish() {
+        if (structuredReport != null) {
+            structuredReport.close();
+            structuredReport = null;
         }
+        reportIndexes.clear();
+    }
+
+    private static String reportPath(String extension) {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+        String timestamp = sdf.format(new Date());
+        return "audit_report_" + timestamp + "." + extension;
+    }
 
+    //防止多次扫描的结果相同导致的重复数据追加，具体实现：报告旁边放一个索引文件，每行是一条结果的指纹，追加前查一下，不用再读整份html
+    private static synchronized Set<String> reportIndex(String reportPath) {
+        Set<String> index = reportIndexes.get(reportPath);
+        if (index == null) {
+            index = new HashSet<>();
+            File indexFile = new File(reportPath + INDEX_SUFFIX);
+            if (!new File(reportPath).exists()) {
+                // 报告被删了，旧的索引也就没用了
+                indexFile.delete();
+            } else if (indexFile.exists()) {
+                try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            index.add(line);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.warn("Failed to read report index " + indexFile.getPath(), e);
+                }
+            }
+            reportIndexes.put(reportPath, index);
+        }
+        return index;
+    }
 
+    private static synchronized void appendToReport(String filePath, File part, List<String> fingerprints) throws IOException {
+        boolean fileExists = new File(filePath).exists();
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(filePath, true)))) {
+            if (!fileExists) {
+                writeHeader(writer);
+            }
+            writer.flush();
+            try (Reader reader = new BufferedReader(new FileReader(part))) {
+                char[] buffer = new char[8192];
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    writer.write(buffer, 0, read);
+                }
+            }
+            if (!fileExists) {
+                writeFooter(writer);
+            }
+            logger.info("create report: " + filePath);
+        }
+        // 报告写完再写索引，中途失败最多是下次重复追加，不会漏掉结果
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(filePath + INDEX_SUFFIX, true)))) {
+            for (String fingerprint : fingerprints) {
+                writer.println(fingerprint);
+            }
+        }
     }
 
-    private static String generateHash(List<String> content) {
+    private static String fingerprint(String topic, String result) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            String concatenatedContent = content.stream().collect(Collectors.joining());
-            byte[] hash = digest.digest(concatenatedContent.getBytes());
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
+            digest.update(topic.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return toHex(digest.digest(result.getBytes(StandardCharsets.UTF_8)));
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Error generating hash", e);
         }
     }
+
+    private static void writeHeader(PrintWriter writer) {
+        writer.println("<html>");
+        writer.println("<head>");
+        writer.println("<title>Fupo JavaEasyScan Result</title>");
+        writer.println("<style>");
+        writer.println("body { font-family: Arial, sans-serif; margin: 0; padding: 0; background-color: #f4f4f9; color: #333; }");
+        writer.println("h1 { text-align: center; color: #333; margin: 20px 0; }");
+        writer.println(".navbar { display: flex; justify-content: space-between; align-items: center; background-color: #355678; padding: 10px; text-align: center; border-radius: 0; margin-bottom: 20px; position: sticky; top: 0; z-index: 1000; transition: background-color 0.3s; }");
+        writer.println(".navbar-logo { color: white; font-size: 24px; font-weight: bold; }");
+        writer.println(".navbar-menu { display: flex; }");
+        writer.println(".navbar a { color: white; text-decoration: none; font-size: 18px; margin: 0 15px; position: relative; }");
+        writer.println(".modal { display: none; position: fixed; z-index: 1000; left: 50%; top: 50%; width: 300px; padding: 20px; background: white; border: 1px solid #ccc; border-radius: 10px; transform: translate(-50%, -50%); box-shadow: 0 0 10px rgba(0, 0, 0, 0.5); }");
+        writer.println(".modal-header { font-size: 18px; font-weight: bold; margin-bottom: 10px; }");
+        writer.println(".modal-content { font-size: 14px; margin-bottom: 20px; }");
+        writer.println(".modal-close { background: #355678; color: white; border: none; padding: 5px 10px; cursor: pointer; border-radius: 5px; }");
+        writer.println(".container { margin: 20px auto; padding: 0 20px; max-width: 800px; border-radius: 8px; }");
+        writer.println(".title { font-size: 18px; font-weight: bold; cursor: pointer; padding: 10px; background: #355678; color: white; border-radius: 8px 8px 0 0; display: flex; justify-content: space-between; align-items: center; }");
+        writer.println(".content { display: none; padding: 10px; border: 1px solid #ddd; border-top: none; border-radius: 0 0 8px 8px; background: white; }");
+        writer.println(".content p { margin: 0; white-space: pre-wrap; }");
+        writer.println(".arrow { font-size: 12px; margin-left: 10px; transition: transform 0.2s; }");
+        writer.println(".title:hover { background: #0056b3; }");
+        writer.println("</style>");
+        writer.println("</head>");
+        writer.println("<body>");
+        writer.println("<div class='navbar'><div class='navbar-logo'>Fupo JavaEasyScanner</div><div class='navbar-menu'><a href='https://novysodope.github.io/'>Home</a><a href='https://github.com/novysodope'>Github</a><a href='https://github.com/novysodope/javaeasyscan' id='about-link'>About</a></div></div>");
+        writer.println("<h1>Detailed report</h1>");
+        writer.println("<div class='modal' id='about-modal'><div class='modal-header'>关于富婆</div><div class='modal-content'>有关本工具的更多信息请移步到Github，如果可以，还可以顺便star一下，后续还会更新漏洞审计和优化分析流程</div><button class='modal-close'>Close</button></div>");
+    }
+
+    private static void writeFooter(PrintWriter writer) {
+        writer.println("<script>");
+        writer.println("document.addEventListener('DOMContentLoaded', function() {");
+        writer.println("    var navbar = document.querySelector('.navbar');");
+        writer.println("    var aboutLink = document.getElementById('about-link');");
+        writer.println("    var aboutModal = document.getElementById('about-modal');");
+        writer.println("    var closeModal = document.querySelector('.modal-close');");
+        writer.println("    aboutLink.addEventListener('click', function(event) {");
+        writer.println("        event.preventDefault();");
+        writer.println("        aboutModal.style.display = 'block';");
+        writer.println("    });");
+        writer.println("    closeModal.addEventListener('click', function() {");
+        writer.println("        aboutModal.style.display = 'none';");
+        writer.println("    });");
+        writer.println("    window.addEventListener('scroll', function() {");
+        writer.println("        if (window.scrollY > 50) {");
+        writer.println("            navbar.style.backgroundColor = 'rgba(53, 86, 120, 0.5)';");
+        writer.println("        } else {");
+        writer.println("            navbar.style.backgroundColor = '#355678';");
+        writer.println("        }");
+        writer.println("    });");
+        writer.println("    document.querySelectorAll('.title').forEach(title => {");
+        writer.println("        title.addEventListener('click', () => {");
+        writer.println("            const content = title.nextElementSibling;");
+        writer.println("            const arrow = title.querySelector('.arrow');");
+        writer.println("            if (content.style.display === 'block') {");
+        writer.println("                content.style.display = 'none';");
+        writer.println("                arrow.innerHTML = '&#9654;';");
+        writer.println("                arrow.style.transform = 'rotate(0deg)';");
+        writer.println("            } else {");
+        writer.println("                content.style.display = 'block';");
+        writer.println("                arrow.innerHTML = '&#9660;';");
+        writer.println("                arrow.style.transform = 'rotate(90deg)';");
+        writer.println("            }");
+        writer.println("        });");
+        writer.println("    });");
+        writer.println("});");
+        writer.println("</script>");
+        writer.println("</body>");
+        writer.println("</html>");
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : hash) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
 }
@@ -1,19 +1,11 @@
 package org.fupo.javaeasyscan;
 
-import com.github.javaparser.ParseResult;
-import com.github.javaparser.ParserConfiguration;
-import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
-import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.body.VariableDeclarator;
 import com.github.javaparser.ast.expr.*;
-import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
-import com.github.javaparser.utils.SourceRoot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.nio.file.Paths;
 import java.util.*;
 /**
  * @Describe
@@ -22,57 +14,47 @@ import java.util.*;
  * @CreateDate 15:28 2024/6/15
  **/
 public class SQLInjecSplitScan {
-    public static ResultUtil resultUtil = new ResultUtil();
+    public static final String topic = "SQL注入";
     private static final Logger logger = LoggerFactory.getLogger(SQLInjecSplitScan.class);
 
     public static void main(String args) {
-        logger.info("Starting SQLInjecSplit module");
-        File rootDir = new File(args);
-        scanJavaFiles(rootDir);
+        main(ProjectIndex.build(new File(args)));
     }
 
-    public static void scanJavaFiles(File dir) {
-        ParserConfiguration parserConfiguration = new ParserConfiguration();
-        SourceRoot sourceRoot = new SourceRoot(Paths.get(dir.getAbsolutePath()), parserConfiguration);
-
-        List<ParseResult<CompilationUnit>> parseResults = sourceRoot.tryToParseParallelized();
+    public static void main(ProjectIndex index) {
+        logger.info("Starting SQLInjecSplit module");
+        report(ScanEngine.scan(index, Collections.singletonList(SQLInjecSplitScan::newDetector)));
+    }
 
-        SqlInjectionVisitor visitor = new SqlInjectionVisitor();
-        List<String> results = new ArrayList<>();
+    public static Detector newDetector() {
+        return new SqlInjectionDetector();
+    }
 
-        for (ParseResult<CompilationUnit> parseResult : parseResults) {
-            parseResult.ifSuccessful(cu -> cu.accept(visitor, results));
-        }
-        if (results!=null&&results.equals("")){
-            resultUtil.generateHtmlReport(results, "SQL注入");
-        }else {
-            System.out.println("\nnot found result\n");
+    public static void report(ScanEngine.ScanResult scanResult) {
+        // 结果逐条写进报告，不再先拼成一个大列表
+        try (ReportSink sink = ResultUtil.openSink(topic)) {
+            for (Finding finding : scanResult.getFindings(SqlInjectionDetector.class)) {
+                sink.add(finding);
+            }
+            if (sink.size() == 0) {
+                ResultUtil.notFound(topic);
+            }
         }
-
     }
 
-    private static class SqlInjectionVisitor extends VoidVisitorAdapter<List<String>> {
+    private static class SqlInjectionDetector implements Detector {
+        // 覆盖下面sqlMethods里的所有方法名
+        private static final Set<String> TRIGGERS = new HashSet<>(Arrays.asList("update", "query", "execute"));
         private final Map<String, String> variableValues = new HashMap<>();
         private final Set<String> detectedInjections = new HashSet<>();
-        private String currentFilePath;
-        private String currentClassName;
-        private String currentMethodName;
-
-        @Override
-        public void visit(ClassOrInterfaceDeclaration classOrInterface, List<String> results) {
-            currentClassName = classOrInterface.getNameAsString();
-            super.visit(classOrInterface, results);
-        }
 
         @Override
-        public void visit(MethodDeclaration methodDeclaration, List<String> results) {
-            currentMethodName = methodDeclaration.getNameAsString();
-            super.visit(methodDeclaration, results);
+        public Set<String> triggers() {
+            return TRIGGERS;
         }
 
         @Override
-        public void visit(VariableDeclarator variableDeclarator, List<String> results) {
-            super.visit(variableDeclarator, results);
+        public void visit(VariableDeclarator variableDeclarator, ScanContext context) {
             if (variableDeclarator.getInitializer().isPresent()) {
                 Expression initializer = variableDeclarator.getInitializer().get();
                 variableValues.put(variableDeclarator.getNameAsString(), initializer.toString());
@@ -80,8 +62,7 @@ public class SQLInjecSplitScan {
         }
 
         @Override
-        public void visit(BinaryExpr binaryExpr, List<String> results) {
-            super.visit(binaryExpr, results);
+        public void visit(BinaryExpr binaryExpr, ScanContext context) {
             if (binaryExpr.getOperator() == BinaryExpr.Operator.PLUS) {
                 if (binaryExpr.getLeft() instanceof NameExpr && binaryExpr.getRight() instanceof StringLiteralExpr) {
                     String left = binaryExpr.getLeft().toString();
@@ -96,8 +77,7 @@ public class SQLInjecSplitScan {
         }
 
         @Override
-        public void visit(MethodCallExpr methodCallExpr, List<String> results) {
-            super.visit(methodCallExpr, results);
+        public void visit(MethodCallExpr methodCallExpr, ScanContext context) {
             List<String> sqlMethods = Arrays.asList("update", "queryForList", "queryForMap", "execute", "query", "executeQuery", "executeUpdate", "executeBatch");
             if (sqlMethods.contains(methodCallExpr.getNameAsString())) {
                 methodCallExpr.getArguments().forEach(arg -> {
@@ -107,9 +87,11 @@ public class SQLInjecSplitScan {
                         if (variableValues.containsKey(variableName) && isStringConcatenation(variableValues.get(variableName))) {
                             int lineNumber = methodCallExpr.getBegin().isPresent() ? methodCallExpr.getBegin().get().line : -1;
                             String sqlStatement = variableValues.get(variableName);
-                            String message = "发现" + currentClassName + "类存在SQL注入漏洞，在" + currentMethodName + "方法中，第" + lineNumber + "行：<br><pre style=\"color:red;\">" + sqlStatement + "</pre>";
+                            String className = context.getCurrentClassName();
+                            String methodName = context.getCurrentMethodName();
+                            String message = "发现" + className + "类存在SQL注入漏洞，在" + methodName + "方法中，第" + lineNumber + "行：<br><pre style=\"color:red;\">" + sqlStatement + "</pre>";
                             if (detectedInjections.add(message)) {
-                                results.add(message);
+                                context.report(new Finding(topic, context.getFilePath(), lineNumber, className, methodName, sqlStatement, message, false));
                             }
                         }
                     }
@@ -120,11 +102,5 @@ public class SQLInjecSplitScan {
         private boolean isStringConcatenation(String value) {
             return value.contains("\" + ") || value.contains(" + \"") || value.contains("\"+") || value.contains("+\"");
         }
-
-        @Override
-        public void visit(CompilationUnit compilationUnit, List<String> results) {
-            currentFilePath = compilationUnit.getStorage().map(storage -> storage.getPath().toString()).orElse("Unknown");
-            super.visit(compilationUnit, results);
-        }
     }
 }
@@ -1,10 +1,5 @@
 package org.fupo.javaeasyscan;
 
-import com.github.javaparser.StaticJavaParser;
-import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
-import com.github.javaparser.ast.expr.MethodCallExpr;
-import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,7 +8,6 @@ import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import java.io.*;
-import java.nio.file.Files;
 import java.util.*;
 
 /**
@@ -24,22 +18,35 @@ import java.util.*;
  **/
 
 public class SQLInjectScan {
-    public static String topic = "SQL注入";
+    public static final String topic = "SQL注入";
     private static final Logger logger = LoggerFactory.getLogger(SQLInjectScan.class);
 
-    public static ResultUtil resultUtil;
+    // 配置好之后只用来创建reader，各扫描线程共用一个
+    private static final XMLInputFactory XML_INPUT_FACTORY = newXmlInputFactory();
+    private static final Set<String> STATEMENT_ELEMENTS = new HashSet<>(Arrays.asList("select", "insert", "update", "delete"));
 
     // 优化输出，显示完整的调用链
-    static class VulnerabilityDetail {
+    public static class VulnerabilityDetail {
         String xmlFile;
+        String xmlFilePath;
+        // Mapper接口的简单类名（namespace最后一段）
+        String mapperName;
         String methodName;
         int xmlLineNumber;
         String vulnerableLineContent;
-        List<String> implCalls;
-        List<String> controllerCalls;
-
-        VulnerabilityDetail(String xmlFile, String methodName, int xmlLineNumber, String vulnerableLineContent) {
-            this.xmlFile = xmlFile;
+        List<Finding.ChainStep> implCalls;
+        List<Finding.ChainStep> controllerCalls;
+        // 从HTTP入口到Mapper方法的路径，入口走不到时为null
+        List<Finding.ChainStep> entryPath;
+        // Mapper接口的源文件，没找到时为null
+        String mapperFilePath;
+        // --since时改动过的文件（绝对路径），只输出碰到了改动文件的调用链；null表示都输出
+        Set<String> changedFiles;
+
+        VulnerabilityDetail(File xmlFile, String mapperName, String methodName, int xmlLineNumber, String vulnerableLineContent) {
+            this.xmlFile = xmlFile.getName();
+            this.xmlFilePath = xmlFile.getAbsolutePath();
+            this.mapperName = mapperName;
             this.methodName = methodName;
             this.xmlLineNumber = xmlLineNumber;
             this.vulnerableLineContent = vulnerableLineContent;
@@ -47,122 +54,192 @@ public class SQLInjectScan {
             this.controllerCalls = new ArrayList<>();
         }
 
-        void addImplCall(String call) {
+        void addImplCall(Finding.ChainStep call) {
             this.implCalls.add(call);
         }
 
-        void addControllerCall(String call) {
+        void addControllerCall(Finding.ChainStep call) {
             this.controllerCalls.add(call);
         }
 
-        List<String> getFormattedOutput() {
-            List<String> outputs = new ArrayList<>();
-            String base = String.format("%s 的 %s 方法存在注入，在第 %d 行：%n<pre style=\"color:red;\">%s</pre>%n", xmlFile, methodName, xmlLineNumber, vulnerableLineContent);
-
+        // 漏洞点、实现类调用、控制层调用的每种组合输出一条，组合可能很多，直接写进报告
+        void writeFormattedOutput(ReportSink sink) {
             if (implCalls.isEmpty() && controllerCalls.isEmpty()) {
-                outputs.add(base);
+                add(sink, newFinding());
             } else {
-                for (String implCall : implCalls) {
-                    String implChain = base + implCall;
+                for (Finding.ChainStep implCall : implCalls) {
                     if (controllerCalls.isEmpty()) {
-                        outputs.add(implChain);
+                        add(sink, newFinding(implCall));
                     } else {
-                        for (String controllerCall : controllerCalls) {
-                            outputs.add(implChain +  controllerCall);
+                        for (Finding.ChainStep controllerCall : controllerCalls) {
+                            add(sink, newFinding(implCall, controllerCall));
                         }
                     }
                 }
             }
+        }
+
+        // XML、实现类调用、控制层调用或者入口路径上任意一步在改动过的文件里才输出，改动过的Service新调用了已有的${}方法也能报出来
+        private void add(ReportSink sink, Finding finding) {
+            if (changedFiles == null || changedFiles.contains(xmlFilePath) || touches(finding.callChain) || finding.entryPath != null && touches(finding.entryPath)) {
+                sink.add(finding);
+            }
+        }
+
+        private boolean touches(List<Finding.ChainStep> steps) {
+            for (Finding.ChainStep step : steps) {
+                if (changedFiles.contains(step.filePath)) {
+                    return true;
+                }
+            }
+            return false;
+        }
 
-            return outputs;
+        private Finding newFinding(Finding.ChainStep... callChain) {
+            String base = String.format("%s 的 %s 方法存在注入，在第 %d 行：%n<pre style=\"color:red;\">%s</pre>%n", xmlFile, methodName, xmlLineNumber, vulnerableLineContent);
+            Finding finding = new Finding(topic, xmlFilePath, xmlLineNumber, mapperName, methodName, vulnerableLineContent, base, false);
+            finding.callChain.addAll(Arrays.asList(callChain));
+            finding.entryPath = entryPath;
+            return finding;
         }
     }
 
+    // 单个XML文件的扫描结果，并行扫描完按文件顺序合并
+    private static class MapperXml {
+        final Map<String, String> namespaceToPathMap = new LinkedHashMap<>();
+        final Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap = new LinkedHashMap<>();
+    }
+
+    private static XMLInputFactory newXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // 不处理DTD、不加载外部实体：mapper的DOCTYPE指向mybatis.org上的dtd，不需要去下载，也不会被XXE利用
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
     public static void main(String args) throws Exception {
+        main(ProjectIndex.build(new File(args)));
+    }
+
+    public static void main(ProjectIndex index) throws Exception {
+        report(scan(index));
+    }
+
+    /**
+     * 扫描Mapper XML并跟进调用链，key是namespace，结果交给report()写报告
+     */
+    public static Map<String, List<VulnerabilityDetail>> scan(ProjectIndex index) {
         logger.info("Starting mybatisSQL module");
-        File rootDir = new File(args);
-        List<File> xmlFiles = new ArrayList<>();
-        collectXmlFiles(rootDir, xmlFiles);
 
         // 用来存储解析到的Mapper接口名和他的文件路径，方便后续去查找对应的调用
         Map<String, String> namespaceToPathMap = new HashMap<>();
         Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap = new HashMap<>();
 
-        for (File xmlFile : xmlFiles) {
-            scanMyBatisXML(xmlFile, namespaceToPathMap, namespaceToVulnerabilitiesMap);
+        // 各XML文件互不影响，并行扫描，再按文件顺序合并，同一个namespace以后面的文件为准，和串行扫描一致
+        // --since时也扫所有XML：没改过的${}方法可能被改动过的代码新调用到，输出时再按调用链过滤
+        List<MapperXml> mapperXmls = ScanExecutor.map(index.getXmlFiles(), xmlFile -> {
+            MapperXml mapperXml = new MapperXml();
+            ScanProfiler.Sample sample = ScanProfiler.begin();
+            ScanMetrics.Phase phase = ScanMetrics.phase("mybatis.xml");
+            try {
+                scanMyBatisXML(xmlFile, mapperXml.namespaceToPathMap, mapperXml.namespaceToVulnerabilitiesMap);
+            } catch (IOException | XMLStreamException e) {
+                logger.warn("Failed to parse xml file: " + xmlFile.getAbsolutePath() + " " + e.getMessage());
+            } finally {
+                phase.end();
+            }
+            ScanProfiler.endParse(xmlFile.getAbsolutePath(), sample);
             logger.info("scan xml file: " + xmlFile.getName());
+            return mapperXml;
+        });
+        for (MapperXml mapperXml : mapperXmls) {
+            namespaceToPathMap.putAll(mapperXml.namespaceToPathMap);
+            namespaceToVulnerabilitiesMap.putAll(mapperXml.namespaceToVulnerabilitiesMap);
+        }
+        for (List<VulnerabilityDetail> vulnerabilities : namespaceToVulnerabilitiesMap.values()) {
+            for (VulnerabilityDetail vulnerability : vulnerabilities) {
+                vulnerability.changedFiles = index.getChangedFiles();
+            }
         }
-        List<File> javaFiles = new ArrayList<>();
 
-        // 确认Mapper接口文件中存在XML文件里存在漏洞的方法，这个操作是确保这个方法出现在整个数据库操作流程中（保证他被用到），减少误报
-        collectJavaFiles(rootDir, javaFiles);
+        // 找到每个namespace对应的Mapper接口文件，后面多模块项目里按它所在的模块判断哪些实现类能调用到它
         for (Map.Entry<String, String> entry : namespaceToPathMap.entrySet()) {
             String namespace = entry.getKey();
             String xmlFilePath = entry.getValue();
             List<VulnerabilityDetail> vulnerabilities = namespaceToVulnerabilitiesMap.get(namespace);
-            findMapperInterface(namespace, xmlFilePath, javaFiles, vulnerabilities);
+            findMapperInterface(namespace, xmlFilePath, index, vulnerabilities);
         }
 
-        Map<String, List<VulnerabilityDetail>> interfaceToVulnerabilitiesMap = findImplementationsAndMethodCalls(namespaceToVulnerabilitiesMap, javaFiles);
-        findRequestMappingCalls(interfaceToVulnerabilitiesMap, javaFiles);
-
-        List<String> results = new ArrayList<>();
-        for (List<VulnerabilityDetail> vulnerabilities : namespaceToVulnerabilitiesMap.values()) {
-            for (VulnerabilityDetail vulnerability : vulnerabilities) {
-                List<String> outputs = vulnerability.getFormattedOutput();
-                results.addAll(outputs);
+        // XML里没有问题语句时用不到调用链索引，不去触发它的构建
+        if (namespaceToVulnerabilitiesMap.values().stream().anyMatch(vulnerabilities -> !vulnerabilities.isEmpty())) {
+            // 调用链索引由Java模块在遍历时顺带建，并发跑时先在这里等它建好，等待时间不算进mybatis.chain
+            index.getCallGraph();
+            ScanMetrics.Phase phase = ScanMetrics.phase("mybatis.chain");
+            try {
+                Map<String, List<VulnerabilityDetail>> interfaceToVulnerabilitiesMap = findImplementationsAndMethodCalls(namespaceToVulnerabilitiesMap, index);
+                findRequestMappingCalls(interfaceToVulnerabilitiesMap, index);
+                markEntryPaths(namespaceToVulnerabilitiesMap, index);
+            } finally {
+                phase.end();
             }
         }
-
-        if (results!=null || !results.equals("")) {
-            resultUtil.generateHtmlReport(results,topic);
-        }else {
-            System.out.println("\nnot found result\n");
-        }
+        return namespaceToVulnerabilitiesMap;
     }
 
-    public static void collectXmlFiles(File dir, List<File> xmlFiles) {
-        if (dir.isDirectory()) {
-            for (File file : dir.listFiles()) {
-                collectXmlFiles(file, xmlFiles);
+    public static void report(Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap) {
+        try (ReportSink sink = ResultUtil.openSink(topic)) {
+            for (List<VulnerabilityDetail> vulnerabilities : namespaceToVulnerabilitiesMap.values()) {
+                for (VulnerabilityDetail vulnerability : vulnerabilities) {
+                    vulnerability.writeFormattedOutput(sink);
+                }
             }
-        } else {
-            if (dir.getName().endsWith(".xml")) {
-                xmlFiles.add(dir);
+            ScanMetrics.count("findings.SQLInjectScan", sink.size());
+            if (sink.size() == 0) {
+                ResultUtil.notFound(topic);
             }
         }
     }
 
-    public static void collectJavaFiles(File dir, List<File> javaFiles) {
-        if (dir.isDirectory()) {
-            for (File file : dir.listFiles()) {
-                collectJavaFiles(file, javaFiles);
-            }
-        } else {
-            if (dir.getName().endsWith(".java")) {
-                javaFiles.add(dir);
+    /**
+     * 扫描一个Mapper XML；根元素不是mapper的文件（pom.xml、logback.xml、Spring配置等）读到根元素就结束
+     */
+    public static void scanMyBatisXML(File xmlFile, Map<String, String> namespaceToPathMap, Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap) throws IOException, XMLStreamException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFile))) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                scanMapper(reader, xmlFile, namespaceToPathMap, namespaceToVulnerabilitiesMap);
+            } finally {
+                // reader.close()不会关底层的流，流由外层的try关闭
+                reader.close();
             }
         }
     }
 
-    public static void scanMyBatisXML(File xmlFile, Map<String, String> namespaceToPathMap, Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap) throws Exception {
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        XMLStreamReader reader = factory.createXMLStreamReader(new FileInputStream(xmlFile));
-
+    private static void scanMapper(XMLStreamReader reader, File xmlFile, Map<String, String> namespaceToPathMap, Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap) throws XMLStreamException {
         String namespace = null;
         int currentLine = 0;
+        boolean rootChecked = false;
 
         while (reader.hasNext()) {
             int event = reader.next();
             if (event == XMLStreamConstants.START_ELEMENT) {
                 String elementName = reader.getLocalName();
+                if (!rootChecked) {
+                    rootChecked = true;
+                    if (!"mapper".equals(elementName)) {
+                        ScanMetrics.count("files.xml.rejected");
+                        return;
+                    }
+                    ScanMetrics.count("files.xml.mappers");
+                }
                 if ("mapper".equals(elementName)) {
                     namespace = reader.getAttributeValue(null, "namespace");
                     if (namespace != null) {
                         namespaceToPathMap.put(namespace, xmlFile.getAbsolutePath());
                         namespaceToVulnerabilitiesMap.put(namespace, new ArrayList<>());
                     }
-                } else if (Arrays.asList("select", "insert", "update", "delete").contains(elementName)) {
+                } else if (STATEMENT_ELEMENTS.contains(elementName)) {
                     String id = reader.getAttributeValue(null, "id");
                     String sql = getElementText(reader);
                     currentLine = reader.getLocation().getLineNumber();
@@ -171,7 +248,7 @@ public class SQLInjectScan {
                         logger.info("find sqlinject: " + sql);
                         if (namespace != null) {
                             logger.info("location: " + namespace);
-                            namespaceToVulnerabilitiesMap.get(namespace).add(new VulnerabilityDetail(xmlFile.getName(), id, currentLine, sql.trim()));
+                            namespaceToVulnerabilitiesMap.get(namespace).add(new VulnerabilityDetail(xmlFile, namespace.substring(namespace.lastIndexOf('.') + 1), id, currentLine, sql.trim()));
                         }
                     }
                 }
@@ -192,99 +269,104 @@ public class SQLInjectScan {
         return content.toString();
     }
 
-    public static void findMapperInterface(String namespace, String xmlFilePath, List<File> javaFiles, List<VulnerabilityDetail> vulnerabilities) {
+    // 按namespace找Mapper接口的源文件：包路径对得上的优先，其次是同名文件；多模块项目里只在XML所在的模块和它依赖的模块里找
+    public static void findMapperInterface(String namespace, String xmlFilePath, ProjectIndex index, List<VulnerabilityDetail> vulnerabilities) {
         String interfaceName = namespace.substring(namespace.lastIndexOf('.') + 1) + ".java";
+        String qualifiedPath = File.separator + namespace.replace('.', File.separatorChar) + ".java";
+        ModuleGraph modules = index.getModules();
+        File mapperFile = null;
 
-        for (File javaFile : javaFiles) {
-            if (javaFile.getName().equals(interfaceName)) {
-                List<String> lines;
-                try {
-                    lines = Files.readAllLines(javaFile.toPath());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    continue;
-                }
-
-                for (VulnerabilityDetail vulnerability : vulnerabilities) {
-                    for (int i = 0; i < lines.size(); i++) {
-                        String line = lines.get(i).trim();
-                        if (line.startsWith("public") && line.contains(vulnerability.methodName + "(")) {
-                            break;
-                        }
-                    }
-                }
+        for (File javaFile : index.getJavaFiles()) {
+            if (!javaFile.getName().equals(interfaceName) || !modules.canSee(xmlFilePath, javaFile.getAbsolutePath())) {
+                continue;
+            }
+            if (javaFile.getAbsolutePath().endsWith(qualifiedPath)) {
+                mapperFile = javaFile;
                 break;
             }
+            if (mapperFile == null) {
+                mapperFile = javaFile;
+            }
+        }
+        if (mapperFile != null) {
+            for (VulnerabilityDetail vulnerability : vulnerabilities) {
+                vulnerability.mapperFilePath = mapperFile.getAbsolutePath();
+            }
         }
     }
 
-    // 查找所有实现类，并且找到调用了上面有漏洞的Mapper方法的地方
-    public static Map<String, List<VulnerabilityDetail>> findImplementationsAndMethodCalls(Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap, List<File> javaFiles) {
-        Map<String, List<VulnerabilityDetail>> interfaceToVulnerabilitiesMap = new HashMap<>();
+    // 有漏洞的Mapper方法：所属Mapper接口（简单类名小写后用来和调用对象比较）和漏洞详情
+    private static class MapperMethod {
+        final String mapperInterfaceName;
+        final String receiverName;
+        final VulnerabilityDetail vulnerability;
 
-        for (File javaFile : javaFiles) {
-            try {
-                CompilationUnit cu = StaticJavaParser.parse(javaFile);
-                cu.accept(new VoidVisitorAdapter<Void>() {
-                    @Override
-                    public void visit(ClassOrInterfaceDeclaration classOrInterface, Void arg) {
-                        super.visit(classOrInterface, arg);
-                        if (!classOrInterface.isInterface() && classOrInterface.getImplementedTypes().size() > 0) {
-                            String className = classOrInterface.getNameAsString();
-                            // 这个implementedInterfaces后续会用到，因为最终控制层调用的就是接口的方法，所以这里要先找到实现类实现的接口，以方便后续的调用查找
-                            List<String> implementedInterfaces = new ArrayList<>();
-                            classOrInterface.getImplementedTypes().forEach(implementedType -> {
-                                implementedInterfaces.add(implementedType.getNameAsString());
-                            });
-
-                            classOrInterface.getMethods().forEach(method -> {
-                                method.accept(new VoidVisitorAdapter<Void>() {
-                                    @Override
-                                    public void visit(MethodCallExpr methodCall, Void arg) {
-                                        super.visit(methodCall, arg);
-                                        methodCall.getScope().ifPresent(scope -> {
-                                            namespaceToVulnerabilitiesMap.forEach((namespace, vulnerabilities) -> {
-                                                String mapperInterfaceName = namespace.substring(namespace.lastIndexOf('.') + 1);
-                                                if (mapperInterfaceName != null && vulnerabilities.stream().anyMatch(v -> v.methodName.equals(methodCall.getNameAsString()))) {
-                                                    boolean found = false;
-                                                    String fullMethodName = mapperInterfaceName.toLowerCase() + "." + methodCall.getNameAsString().toLowerCase();
-                                                    try {
-                                                        List<String> lines = Files.readAllLines(javaFile.toPath());
-                                                        for (String line : lines) {
-                                                            if (line.toLowerCase().contains(fullMethodName)) {
-                                                                found = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    } catch (IOException e) {
-                                                        e.printStackTrace();
-                                                    }
-                                                    if (found) {
-                                                        VulnerabilityDetail vulnerability = vulnerabilities.stream().filter(v -> v.methodName.equals(methodCall.getNameAsString())).findFirst().orElse(null);
-                                                        if (vulnerability != null) {
-                                                            String vulnerableLineContent = getLineContent(javaFile, methodCall.getBegin().get().line - 1);
-                                                            vulnerability.addImplCall(String.format("<b>调用信息如下:</b>%n%n%s 类实现了接口 %s , 该实现类调用了 %s 的 %s 方法：%n<pre style=\"color:red;\">%s</pre>%n", className, String.join(", ", implementedInterfaces), mapperInterfaceName, methodCall.getNameAsString(),vulnerableLineContent));
-                                                            logger.info("mapper: " + mapperInterfaceName);
-                                                            logger.info("methodName: " + vulnerability.methodName);
-                                                            logger.info("interfece: " + implementedInterfaces);
-                                                            logger.info("implements: " + className);
-                                                            implementedInterfaces.forEach(interfaceName -> {
-                                                                interfaceToVulnerabilitiesMap.putIfAbsent(interfaceName, new ArrayList<>());
-                                                                interfaceToVulnerabilitiesMap.get(interfaceName).add(vulnerability);
-                                                            });
-                                                        }
-                                                    }
-                                                }
-                                            });
-                                        });
-                                    }
-                                }, null);
-                            });
-                        }
-                    }
-                }, null);
-            } catch (Exception e) {
-                e.printStackTrace();
+        MapperMethod(String mapperInterfaceName, VulnerabilityDetail vulnerability) {
+            this.mapperInterfaceName = mapperInterfaceName;
+            this.receiverName = mapperInterfaceName.toLowerCase();
+            this.vulnerability = vulnerability;
+        }
+    }
+
+    /**
+     * 方法名 -> 有漏洞的Mapper方法，按namespace的遍历顺序排列，同一个namespace里同名的方法只取第一个
+     */
+    static Map<String, List<MapperMethod>> indexMapperMethods(Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap) {
+        Map<String, List<MapperMethod>> mapperMethods = new HashMap<>();
+        namespaceToVulnerabilitiesMap.forEach((namespace, vulnerabilities) -> {
+            String mapperInterfaceName = namespace.substring(namespace.lastIndexOf('.') + 1);
+            Set<String> methodNames = new HashSet<>();
+            for (VulnerabilityDetail vulnerability : vulnerabilities) {
+                if (methodNames.add(vulnerability.methodName)) {
+                    mapperMethods.computeIfAbsent(vulnerability.methodName, k -> new ArrayList<>()).add(new MapperMethod(mapperInterfaceName, vulnerability));
+                }
+            }
+        });
+        return mapperMethods;
+    }
+
+    // 调用对象是不是这个Mapper：userMapper.selectUser()、this.userMapper.selectUser()都按最后一段和Mapper类名忽略大小写比较，调用点里的scope已经是小写
+    private static boolean isMapperReceiver(String scope, MapperMethod mapperMethod) {
+        String receiver = scope.substring(scope.lastIndexOf('.') + 1);
+        return receiver.equals(mapperMethod.receiverName);
+    }
+
+    // 查找所有实现类，并且找到调用了上面有漏洞的Mapper方法的地方，直接查ScanEngine建好的调用点，每个调用点按方法名查一次索引
+    public static Map<String, List<VulnerabilityDetail>> findImplementationsAndMethodCalls(Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap, ProjectIndex index) {
+        Map<String, List<VulnerabilityDetail>> interfaceToVulnerabilitiesMap = new HashMap<>();
+        Map<String, List<MapperMethod>> mapperMethods = indexMapperMethods(namespaceToVulnerabilitiesMap);
+        ModuleGraph modules = index.getModules();
+
+        for (CallGraph.CallSite callSite : index.getCallGraph().getCallSites()) {
+            CallGraph.ClassInfo classInfo = callSite.callerClass;
+            // 只看实现了接口的类自己声明的方法里的调用
+            if (callSite.ownerMethod == null || classInfo.isInterface || classInfo.implementedTypes.isEmpty()) {
+                continue;
+            }
+            List<MapperMethod> candidates = mapperMethods.get(callSite.methodName);
+            if (candidates == null) {
+                continue;
+            }
+            String className = classInfo.name;
+            // 这个implementedInterfaces后续会用到，因为最终控制层调用的就是接口的方法，所以这里要先找到实现类实现的接口，以方便后续的调用查找
+            List<String> implementedInterfaces = classInfo.implementedTypes;
+            for (MapperMethod mapperMethod : candidates) {
+                VulnerabilityDetail vulnerability = mapperMethod.vulnerability;
+                // 多模块项目里实现类所在的模块要依赖Mapper所在的模块，没找到Mapper接口时按XML所在的模块算
+                String mapperFilePath = vulnerability.mapperFilePath != null ? vulnerability.mapperFilePath : vulnerability.xmlFilePath;
+                if (!isMapperReceiver(callSite.scope, mapperMethod) || !modules.canSee(callSite.filePath, mapperFilePath)) {
+                    continue;
+                }
+                String vulnerableLineContent = index.getLineContent(callSite.filePath, callSite.line);
+                vulnerability.addImplCall(new Finding.ChainStep(Finding.ChainStep.Kind.IMPL, callSite.filePath, callSite.line, className, callSite.ownerMethod, mapperMethod.mapperInterfaceName, callSite.methodName, vulnerableLineContent, String.join(", ", implementedInterfaces)));
+                logger.info("mapper: " + mapperMethod.mapperInterfaceName);
+                logger.info("methodName: " + vulnerability.methodName);
+                logger.info("interfece: " + implementedInterfaces);
+                logger.info("implements: " + className);
+                implementedInterfaces.forEach(interfaceName -> {
+                    interfaceToVulnerabilitiesMap.putIfAbsent(interfaceName, new ArrayList<>());
+                    interfaceToVulnerabilitiesMap.get(interfaceName).add(vulnerability);
+                });
             }
         }
 
@@ -292,64 +374,41 @@ public class SQLInjectScan {
     }
 
     // 参考的springboot/mvc项目，基于注解来找控制层，在控制层里找接口
-    public static void findRequestMappingCalls(Map<String, List<VulnerabilityDetail>> interfaceToVulnerabilitiesMap, List<File> javaFiles) {
-        for (File javaFile : javaFiles) {
-            try {
-                CompilationUnit cu = StaticJavaParser.parse(javaFile);
-                cu.accept(new VoidVisitorAdapter<Void>() {
-                    @Override
-                    public void visit(ClassOrInterfaceDeclaration classOrInterface, Void arg) {
-                        super.visit(classOrInterface, arg);
-                        if (classOrInterface.getAnnotations().stream().anyMatch(annotation -> annotation.getNameAsString().equals("RequestMapping")
-                                || annotation.getNameAsString().equals("GetMapping")
-                                || annotation.getNameAsString().equals("PostMapping")
-                                || annotation.getNameAsString().equals("PutMapping")
-                                || annotation.getNameAsString().equals("DeleteMapping")
-                                || annotation.getNameAsString().equals("Controller"))) {
-                            String controllerClassName = classOrInterface.getNameAsString();
-
-                            classOrInterface.getMethods().forEach(method -> {
-                                method.accept(new VoidVisitorAdapter<Void>() {
-                                    @Override
-                                    public void visit(MethodCallExpr methodCall, Void arg) {
-                                        super.visit(methodCall, arg);
-                                        methodCall.getScope().ifPresent(scope -> {
-                                            String calledInterfaceName = scope.toString();
-                                            interfaceToVulnerabilitiesMap.forEach((interfaceName, vulnerabilities) -> {
-                                                vulnerabilities.forEach(vulnerability -> {
-                                                    String intfmet = (interfaceName + "." + vulnerability.methodName).toLowerCase();
-                                                    String met = methodCall.toString().toLowerCase();
-                                                    if (interfaceName != null && met.contains(intfmet)) {
-                                                        String vulnerableLineContent = getLineContent(javaFile, methodCall.getBegin().get().line - 1);
-                                                        vulnerability.addControllerCall(String.format("往上跟进被实现的接口发现，%s 类的 %s 方法调用了被实现接口 %s 的 %s 方法，在第 %d 行：%n<pre style=\"color:red;\">%s</pre>%n",
-                                                                controllerClassName, method.getNameAsString(), interfaceName, methodCall.getNameAsString(), methodCall.getBegin().get().line, vulnerableLineContent));
-                                                        logger.info("controller: " + controllerClassName);
-                                                    }
-                                                });
-                                            });
-                                        });
-                                    }
-                                }, null);
-                            });
-                        }
-                    }
-                }, null);
-            } catch (Exception e) {
-                e.printStackTrace();
+    public static void findRequestMappingCalls(Map<String, List<VulnerabilityDetail>> interfaceToVulnerabilitiesMap, ProjectIndex index) {
+        CallGraph callGraph = index.getCallGraph();
+        for (CallGraph.CallSite callSite : callGraph.getCallSites()) {
+            if (callSite.ownerMethod == null || !isController(callSite.callerClass)) {
+                continue;
             }
+            String controllerClassName = callSite.callerClass.name;
+            String met = (callSite.scope + "." + callSite.methodName).toLowerCase();
+            interfaceToVulnerabilitiesMap.forEach((interfaceName, vulnerabilities) -> {
+                vulnerabilities.forEach(vulnerability -> {
+                    String intfmet = (interfaceName + "." + vulnerability.methodName).toLowerCase();
+                    if (met.contains(intfmet) && callGraph.canSee(callSite.filePath, interfaceName)) {
+                        String vulnerableLineContent = index.getLineContent(callSite.filePath, callSite.line);
+                        vulnerability.addControllerCall(new Finding.ChainStep(Finding.ChainStep.Kind.CONTROLLER, callSite.filePath, callSite.line, controllerClassName, callSite.ownerMethod, interfaceName, callSite.methodName, vulnerableLineContent, null));
+                        logger.info("controller: " + controllerClassName);
+                    }
+                });
+            });
         }
     }
 
-    private static String getLineContent(File file, int lineNumber) {
-        try {
-            List<String> lines = Files.readAllLines(file.toPath());
-            if (lineNumber >= 0 && lineNumber < lines.size()) {
-                return lines.get(lineNumber).trim();
+    // 控制层的判断和入口可达性共用一套规则
+    private static boolean isController(CallGraph.ClassInfo classInfo) {
+        return EntryPointIndex.isEntryClass(classInfo);
+    }
+
+    // 上面只找了控制层直接调用接口这一层，中间隔了几层service的也要能看出来是不是从HTTP入口走得到，Mapper的namespace是全限定名，调用索引里是简单类名
+    private static void markEntryPaths(Map<String, List<VulnerabilityDetail>> namespaceToVulnerabilitiesMap, ProjectIndex index) {
+        EntryPointIndex entryPoints = index.getCallGraph().getEntryPoints();
+        for (List<VulnerabilityDetail> vulnerabilities : namespaceToVulnerabilitiesMap.values()) {
+            for (VulnerabilityDetail vulnerability : vulnerabilities) {
+                String mapperFilePath = vulnerability.mapperFilePath != null ? vulnerability.mapperFilePath : vulnerability.xmlFilePath;
+                vulnerability.entryPath = entryPoints.pathTo(mapperFilePath, vulnerability.mapperName, vulnerability.methodName);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return "";
     }
 
 }
@@ -0,0 +1,169 @@
+package org.fupo.javaeasyscan;
+
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * @Describe 单个文件的扫描上下文：当前所在的类和方法、规则上报的结果、顺便收集的调用点，只在扫描这个文件的线程里使用
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 11:48 2024/6/21
+ **/
+public class ScanContext {
+    // 当前正在遍历的类，栈顶是最内层的类
+    private static class ClassFrame {
+        final CallGraph.ClassInfo classInfo;
+        final List<CallGraph.CallSite> callSites = new ArrayList<>();
+        String ownMethodName;
+
+        ClassFrame(CallGraph.ClassInfo classInfo) {
+            this.classInfo = classInfo;
+        }
+    }
+
+    // 报告里漏洞所在行前后各展示几行
+    private static final int CONTEXT_RADIUS = 2;
+
+    private final ProjectIndex index;
+    private final String filePath;
+    private final Deque<ClassFrame> classFrames = new LinkedList<>();
+    private final Deque<String> methodNames = new LinkedList<>();
+    private final List<CallGraph.ClassInfo> classes = new ArrayList<>();
+    private final List<CallGraph.CallSite> callSites = new ArrayList<>();
+    private final List<Finding> findings = new ArrayList<>();
+    private Detector currentDetector;
+    // 规则是否用过符号解析，用过的话结果可能取决于别的项目文件
+    private boolean resolved;
+
+    ScanContext(ProjectIndex index, String filePath) {
+        this.index = index;
+        this.filePath = filePath;
+    }
+
+    /**
+     * 各模块共用的符号解析服务
+     */
+    public ResolutionService getResolutionService() {
+        resolved = true;
+        return index.getResolutionService();
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public String getCurrentClassName() {
+        return classFrames.isEmpty() ? "" : classFrames.peek().classInfo.name;
+    }
+
+    public String getCurrentMethodName() {
+        return methodNames.isEmpty() ? "" : methodNames.peek();
+    }
+
+    /**
+     * 取当前文件第lineNumber行的内容（从1开始）
+     */
+    public String getLineContent(int lineNumber) {
+        return index.getLineContent(filePath, lineNumber);
+    }
+
+    /**
+     * 上报一条结果，结果按上报它的规则分组
+     */
+    public void report(Finding finding) {
+        finding.detectorClass = currentDetector == null ? null : currentDetector.getClass();
+        finding.context = index.getLineContext(filePath, finding.lineNumber, CONTEXT_RADIUS);
+        findings.add(finding);
+    }
+
+    boolean usedResolution() {
+        return resolved;
+    }
+
+    void setCurrentDetector(Detector detector) {
+        this.currentDetector = detector;
+    }
+
+    List<Finding> getFindings() {
+        return findings;
+    }
+
+    List<CallGraph.ClassInfo> getClasses() {
+        return classes;
+    }
+
+    List<CallGraph.CallSite> getCallSites() {
+        return callSites;
+    }
+
+    void enterClass(ClassOrInterfaceDeclaration classOrInterface) {
+        List<String> implementedTypes = new ArrayList<>();
+        for (ClassOrInterfaceType implementedType : classOrInterface.getImplementedTypes()) {
+            implementedTypes.add(implementedType.getNameAsString());
+        }
+        List<String> annotations = new ArrayList<>();
+        for (AnnotationExpr annotation : classOrInterface.getAnnotations()) {
+            annotations.add(annotation.getNameAsString());
+        }
+        classFrames.push(new ClassFrame(new CallGraph.ClassInfo(filePath, classOrInterface.getNameAsString(), classOrInterface.isInterface(), implementedTypes, annotations, new ArrayList<>(), new ArrayList<>())));
+    }
+
+    // 内部类先出栈，所以调用点的顺序是内部类先于外部类
+    void exitClass() {
+        ClassFrame frame = classFrames.pop();
+        classes.add(frame.classInfo);
+        callSites.addAll(frame.callSites);
+    }
+
+    /**
+     * 返回进入之前的ownMethodName，exitMethod时还原
+     */
+    String enterMethod(MethodDeclaration methodDeclaration) {
+        methodNames.push(methodDeclaration.getNameAsString());
+        ClassFrame frame = classFrames.peek();
+        if (frame == null || !methodDeclaration.getParentNode().filter(parent -> parent instanceof ClassOrInterfaceDeclaration).isPresent()) {
+            return null;
+        }
+        frame.classInfo.methods.add(methodDeclaration.getNameAsString());
+        for (AnnotationExpr annotation : methodDeclaration.getAnnotations()) {
+            // @RequestMapping、@GetMapping、@PostMapping等，作为HTTP入口
+            if (annotation.getNameAsString().endsWith("Mapping")) {
+                frame.classInfo.mappingMethods.add(methodDeclaration.getNameAsString());
+                break;
+            }
+        }
+        String previous = frame.ownMethodName;
+        frame.ownMethodName = methodDeclaration.getNameAsString();
+        return previous;
+    }
+
+    void exitMethod(MethodDeclaration methodDeclaration, String previousOwnMethodName) {
+        methodNames.pop();
+        ClassFrame frame = classFrames.peek();
+        if (frame != null && methodDeclaration.getParentNode().filter(parent -> parent instanceof ClassOrInterfaceDeclaration).isPresent()) {
+            frame.ownMethodName = previousOwnMethodName;
+        }
+    }
+
+    // 外层的每个类都记录一次这个调用点，和原来每个类findAll的效果一致
+    // 没有调用对象的调用（本类的方法）也记下来，scope为空串：按类名往上跟进时匹配不到它们，只给正向的入口可达分析用
+    void addCallSite(MethodCallExpr methodCall) {
+        int lineNumber = methodCall.getBegin().isPresent() ? methodCall.getBegin().get().line : -1;
+        String callerMethod = methodNames.isEmpty() ? "Unknown Method" : methodNames.peek();
+        String scope = methodCall.getScope().isPresent() ? methodCall.getScope().get().toString().toLowerCase() : "";
+        Iterator<ClassFrame> frames = classFrames.iterator();
+        while (frames.hasNext()) {
+            ClassFrame frame = frames.next();
+            frame.callSites.add(new CallGraph.CallSite(filePath, lineNumber, frame.classInfo, callerMethod, frame.ownMethodName, methodCall.getNameAsString(), scope));
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.fupo.javaeasyscan;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @Describe --daemon：常驻进程，JVM、JIT和已经加载的类一直是热的，每个项目上一次扫描后的状态留在内存里，再次扫描时只重新解析改过的文件（见WarmScanner）
+ * 只监听本机回环地址，请求一个一个处理：
+ * GET /status                 探活，返回{"status":"ok"}
+ * POST /scan?path=源码目录    增量扫描，返回JSON；不带path时扫启动时指定的目录
+ * POST /rescan?path=源码目录  丢掉这个目录的状态重新全量扫描
+ * POST /shutdown              退出
+ * 浏览器里的网页也能往回环地址发请求：Host头必须是localhost或127.0.0.1加监听端口（挡住DNS重绑定），
+ * 除/status外只接受POST，并且要带上X-Scan-Token头，值是启动时生成、写在~/.javaeasyscan/daemon-端口.token（只有本用户可读）里的随机串
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 15:20 2024/6/30
+ **/
+public class ScanDaemon {
+    private static final Logger logger = LoggerFactory.getLogger(ScanDaemon.class);
+    public static final int DEFAULT_PORT = 8765;
+    static final String TOKEN_HEADER = "X-Scan-Token";
+
+    private final File defaultRootDir;
+    private final WarmScanner scanner;
+    // 令牌文件所在目录
+    private final File tokenDir;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server;
+    private ExecutorService executor;
+    private File tokenFile;
+    private byte[] token;
+
+    public ScanDaemon(File defaultRootDir, boolean lean) {
+        this(defaultRootDir, lean, new File(System.getProperty("user.home"), ".javaeasyscan"));
+    }
+
+    ScanDaemon(File defaultRootDir, boolean lean, File tokenDir) {
+        this.defaultRootDir = defaultRootDir == null ? null : defaultRootDir.getAbsoluteFile();
+        this.scanner = new WarmScanner(lean);
+        this.tokenDir = tokenDir;
+    }
+
+    /**
+     * 启动时指定了目录就先扫一遍，第一次请求也能直接用上内存里的状态
+     */
+    public void start(int port) throws Exception {
+        if (defaultRootDir != null) {
+            logger.info("daemon: warming up " + defaultRootDir.getPath());
+            scanner.scan(defaultRootDir, false);
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // port为0时由系统分配，令牌文件名和Host校验都用实际端口
+        writeToken(server.getAddress().getPort());
+        server.createContext("/status", exchange -> {
+            if (checkRequest(exchange, false)) {
+                respond(exchange, 200, "{\"status\":\"ok\"}");
+            }
+        });
+        server.createContext("/scan", exchange -> {
+            if (checkRequest(exchange, true)) {
+                handleScan(exchange, false);
+            }
+        });
+        server.createContext("/rescan", exchange -> {
+            if (checkRequest(exchange, true)) {
+                handleScan(exchange, true);
+            }
+        });
+        server.createContext("/shutdown", exchange -> {
+            if (checkRequest(exchange, true)) {
+                respond(exchange, 200, "{\"status\":\"stopping\"}");
+                stopped.countDown();
+            }
+        });
+        // 同一时刻只跑一个扫描，报告输出和调用链索引都是按一次扫描设计的
+        executor = Executors.newSingleThreadExecutor();
+        server.setExecutor(executor);
+        server.start();
+        logger.info("daemon: listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + ", token in " + tokenFile.getPath());
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    File getTokenFile() {
+        return tokenFile;
+    }
+
+    /**
+     * 生成随机令牌写到tokenDir/daemon-端口.token，文件创建时就只有本用户可读写，不是POSIX文件系统时退回File的权限设置
+     */
+    private void writeToken(int port) throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        token = hex.toString().getBytes(StandardCharsets.UTF_8);
+        tokenDir.mkdirs();
+        tokenFile = new File(tokenDir, "daemon-" + port + ".token");
+        Files.deleteIfExists(tokenFile.toPath());
+        if (tokenFile.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tokenFile.toPath(), PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        } else {
+            Files.createFile(tokenFile.toPath());
+            tokenFile.setReadable(false, false);
+            tokenFile.setWritable(false, false);
+            tokenFile.setReadable(true, true);
+            tokenFile.setWritable(true, true);
+        }
+        Files.write(tokenFile.toPath(), token);
+    }
+
+    /**
+     * Host头不是本机地址加监听端口时返回403；needToken为true时只接受POST（否则405），令牌不对返回401；不通过时已经写好响应
+     */
+    private boolean checkRequest(HttpExchange exchange, boolean needToken) throws IOException {
+        int port = getPort();
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (!("localhost:" + port).equals(host) && !("127.0.0.1:" + port).equals(host)) {
+            respondError(exchange, 403, "forbidden host: " + host);
+            return false;
+        }
+        if (!needToken) {
+            return true;
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            respondError(exchange, 405, "method not allowed: " + exchange.getRequestMethod());
+            return false;
+        }
+        String requestToken = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        // 按固定时间比较，不从响应时间泄露令牌
+        if (requestToken == null || !MessageDigest.isEqual(token, requestToken.getBytes(StandardCharsets.UTF_8))) {
+            respondError(exchange, 401, "missing or invalid " + TOKEN_HEADER);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 等到收到/shutdown请求
+     */
+    public void awaitStop() throws InterruptedException, IOException {
+        stopped.await();
+        server.stop(0);
+        executor.shutdown();
+        Files.deleteIfExists(tokenFile.toPath());
+        logger.info("daemon: stopped");
+    }
+
+    private void handleScan(HttpExchange exchange, boolean full) throws IOException {
+        try {
+            String path = queryParameter(exchange, "path");
+            File rootDir = path != null ? new File(path).getAbsoluteFile() : defaultRootDir;
+            if (rootDir == null || !rootDir.isDirectory()) {
+                respondError(exchange, 400, rootDir == null ? "missing parameter: path" : "not a directory: " + rootDir.getPath());
+                return;
+            }
+            respond(exchange, 200, toJson(scanner.scan(rootDir, full)));
+        } catch (Exception e) {
+            logger.error("daemon: scan failed", e);
+            respondError(exchange, 500, String.valueOf(e));
+        }
+    }
+
+    /**
+     * 结果按模块顺序转成JSON：{"path":...,"full":...,"javaFiles":N,"parsedFiles":N,"elapsedMs":N,"findings":[...]}，
+     * findings里每条结果的格式和jsonl报告的一行一样
+     */
+    private static String toJson(WarmScanner.Result result) {
+        List<Finding> findings = result.findings;
+        StringBuilder json = new StringBuilder("{\"path\":");
+        StructuredReport.appendString(json, result.rootDir.getPath());
+        json.append(",\"full\":").append(result.full);
+        json.append(",\"javaFiles\":").append(result.javaFiles);
+        json.append(",\"parsedFiles\":").append(result.parsedFiles);
+        json.append(",\"elapsedMs\":").append(result.elapsedMs);
+        json.append(",\"findings\":[");
+        for (int i = 0; i < findings.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('\n');
+            StructuredReport.appendJsonLine(json, findings.get(i));
+        }
+        return json.append("\n]}\n").toString();
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) throws UnsupportedEncodingException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && name.equals(pair.substring(0, eq))) {
+                return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static void respondError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder error = new StringBuilder("{\"error\":");
+        StructuredReport.appendString(error, message);
+        respond(exchange, status, error.append('}').toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package org.fupo.javaeasyscan;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.BinaryExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * @Describe 扫描引擎：每个文件的语法树只遍历一次，遍历时分发给所有注册的规则，同时建立反向调用索引，最后统一往上跟进调用链
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 14:10 2024/6/21
+ **/
+public class ScanEngine {
+    private static final Logger logger = LoggerFactory.getLogger(ScanEngine.class);
+
+    // 扫描结果，按规则分组，组内按文件顺序
+    public static class ScanResult {
+        private final Map<Class<?>, List<Finding>> findings = new HashMap<>();
+        // 增量扫描时这次扫描之后的状态，下次扫描接着用
+        private ScanState state;
+
+        public List<Finding> getFindings(Class<? extends Detector> detectorClass) {
+            return findings.getOrDefault(detectorClass, Collections.emptyList());
+        }
+
+        ScanState getState() {
+            return state;
+        }
+    }
+
+    public static ScanResult scan(ProjectIndex index, List<Supplier<Detector>> detectorFactories) {
+        return scan(index, detectorFactories, (File) null);
+    }
+
+    /**
+     * cacheFile不为空时做增量扫描：内容没变的文件直接用缓存里的结果，只解析新增和修改的文件，扫描完把结果写回cacheFile
+     */
+    public static ScanResult scan(ProjectIndex index, List<Supplier<Detector>> detectorFactories, File cacheFile) {
+        // 其他模块的线程在getCallGraph()里等这次扫描建好调用链索引，扫描失败时要放开它们
+        index.expectCallGraph();
+        try {
+            ScanState previous = cacheFile == null ? null : ScanState.load(cacheFile, fingerprint(detectorFactories), index.getRootDir());
+            ScanResult scanResult = scanProject(index, detectorFactories, previous);
+            if (cacheFile != null) {
+                scanResult.state.save(cacheFile);
+            }
+            return scanResult;
+        } finally {
+            index.cancelCallGraph();
+        }
+    }
+
+    /**
+     * 常驻进程用的增量扫描：previous是同一个项目上一次扫描后的状态（第一次扫描传null），状态只在内存里传，不读写缓存文件；
+     * 修改时间和大小都没变的文件连内容都不读，新的状态从ScanResult.getState()取
+     */
+    static ScanResult rescan(ProjectIndex index, List<Supplier<Detector>> detectorFactories, ScanState previous) {
+        index.expectCallGraph();
+        try {
+            return scanProject(index, detectorFactories, previous != null ? previous : new ScanState(fingerprint(detectorFactories), index.getRootDir()));
+        } finally {
+            index.cancelCallGraph();
+        }
+    }
+
+    // previous不为空时做增量扫描，扫描完的状态放到ScanResult里
+    private static ScanResult scanProject(ProjectIndex index, List<Supplier<Detector>> detectorFactories, ScanState previous) {
+        TriggerFilter triggerFilter = TriggerFilter.forDetectors(newDetectors(detectorFactories));
+        List<ScanState.FileSummary> fileScans = new ArrayList<>(ScanExecutor.map(index.getJavaFiles(), javaFile -> scanFile(index, javaFile, detectorFactories, previous, triggerFilter)));
+        if (previous != null) {
+            rescanResolved(index, detectorFactories, fileScans, previous);
+        }
+        int skipped = 0;
+        int outOfScope = 0;
+        for (ScanState.FileSummary summary : fileScans) {
+            if (summary != null && summary.skipped) {
+                if (summary.indexOnly) {
+                    outOfScope++;
+                } else {
+                    skipped++;
+                }
+            }
+        }
+        if (triggerFilter != null) {
+            ScanMetrics.count("files.skipped", skipped);
+            logger.info("pre-filter: " + skipped + " of " + fileScans.size() + " java files contain no trigger token, skipped for detection");
+        }
+        if (index.getChangedFiles() != null) {
+            ScanMetrics.count("files.outOfScope", outOfScope);
+            logger.info("since: " + outOfScope + " of " + fileScans.size() + " java files unchanged and not cached, skipped for detection");
+        }
+
+        // 按文件顺序合并，输出顺序和串行扫描一致
+        ScanResult scanResult = new ScanResult();
+        List<Finding> traceFindings = new ArrayList<>();
+        for (ScanState.FileSummary summary : fileScans) {
+            if (summary == null) {
+                continue;
+            }
+            for (Finding finding : summary.findings) {
+                scanResult.findings.computeIfAbsent(finding.detectorClass, k -> new ArrayList<>()).add(finding);
+                if (finding.traceCallers) {
+                    traceFindings.add(finding);
+                }
+            }
+        }
+        // 跳过的文件等到第一次用调用链索引时才解析，没有结果要跟进、其他模块也用不到时就一直不解析
+        if (skipped == 0 && outOfScope == 0) {
+            index.setCallGraph(buildCallGraph(index, fileScans));
+        } else {
+            index.deferCallGraph(() -> {
+                List<Integer> deferred = new ArrayList<>();
+                for (int i = 0; i < fileScans.size(); i++) {
+                    if (fileScans.get(i) != null && fileScans.get(i).skipped) {
+                        deferred.add(i);
+                    }
+                }
+                // 只提取调用点；内容和上次一样的文件仍然算没改过，不会让缓存里的调用链重新跟进
+                List<ScanState.FileSummary> summaries = ScanExecutor.map(deferred, i -> {
+                    ScanState.FileSummary pending = fileScans.get(i);
+                    ScanState.FileSummary summary = parseFile(index, index.getJavaFiles().get(i), null, pending.hash, Collections.emptyList());
+                    if (summary != null) {
+                        summary.reused = pending.reused;
+                        summary.indexOnly = pending.indexOnly;
+                        summary.lastModified = pending.lastModified;
+                        summary.length = pending.length;
+                    }
+                    return summary;
+                });
+                for (int i = 0; i < deferred.size(); i++) {
+                    fileScans.set(deferred.get(i), summaries.get(i));
+                }
+                return buildCallGraph(index, fileScans);
+            });
+        }
+        if (!traceFindings.isEmpty()) {
+            CallGraph callGraph = index.getCallGraph();
+
+            // 新增、修改、删除的文件里（新旧两份）调用点涉及的方法名，调用链经过这些方法的都要重新跟进；缓存是别的根目录下写的时全部重新跟进
+            Set<String> affectedMethods = previous == null || previous.isRelocated() ? null : affectedMethods(index, fileScans, previous);
+
+            // 调用链索引建好之后再统一往上跟进，各条结果互不影响，可以并行
+            ScanExecutor.map(traceFindings, finding -> {
+                if (affectedMethods != null && finding.callChainMethods != null && Collections.disjoint(finding.callChainMethods, affectedMethods)) {
+                    return null;
+                }
+                List<Finding.ChainStep> callChain = new ArrayList<>();
+                Set<String> visitedMethods = new HashSet<>();
+                ScanMetrics.Phase phase = ScanMetrics.phase("trace");
+                try {
+                    callGraph.findUsages(finding.className, finding.methodName, visitedMethods, callChain);
+                } finally {
+                    phase.end();
+                }
+                ScanMetrics.count("chain.hops", callChain.size());
+                finding.callChain = callChain;
+                Set<String> callChainMethods = new HashSet<>();
+                callChainMethods.add(finding.methodName);
+                for (String methodKey : visitedMethods) {
+                    callChainMethods.add(methodKey.substring(methodKey.lastIndexOf('.') + 1));
+                }
+                finding.callChainMethods = callChainMethods;
+                return null;
+            });
+        }
+        if (index.getChangedFiles() != null) {
+            keepTouchedFindings(index, scanResult, fileScans);
+        }
+        for (Map.Entry<Class<?>, List<Finding>> entry : scanResult.findings.entrySet()) {
+            ScanMetrics.count("findings." + entry.getKey().getSimpleName(), entry.getValue().size());
+        }
+        // 没有结果要跟进时调用链索引还没建，这时不为了入口可达性去解析全部预筛跳过的文件
+        markEntryPaths(index, scanResult, fileScans, skipped == 0 && outOfScope == 0 || !traceFindings.isEmpty());
+
+        if (previous != null) {
+            scanResult.state = newState(previous.getFingerprint(), index, fileScans);
+        }
+        return scanResult;
+    }
+
+    /**
+     * 规则用过符号解析的文件，结果可能取决于别的项目文件里声明的类型（比如方法返回值是不是ProcessBuilder），
+     * 项目里有文件新增、修改或删除时，这些文件即使内容没变也不复用缓存里的结果，重新解析跑一遍规则
+     */
+    private static void rescanResolved(ProjectIndex index, List<Supplier<Detector>> detectorFactories, List<ScanState.FileSummary> fileScans, ScanState previous) {
+        Set<String> currentFiles = new HashSet<>();
+        List<Integer> resolved = new ArrayList<>();
+        boolean changed = false;
+        for (int i = 0; i < fileScans.size(); i++) {
+            String filePath = index.getJavaFiles().get(i).getAbsolutePath();
+            currentFiles.add(filePath);
+            ScanState.FileSummary summary = fileScans.get(i);
+            if (summary == null ? previous.get(filePath) != null : !summary.reused) {
+                changed = true;
+            } else if (summary != null && summary.resolved) {
+                resolved.add(i);
+            }
+        }
+        if (!changed) {
+            changed = !currentFiles.containsAll(previous.getFiles().keySet());
+        }
+        if (!changed || resolved.isEmpty()) {
+            return;
+        }
+        List<ScanState.FileSummary> summaries = ScanExecutor.map(resolved, i -> {
+            ScanState.FileSummary cached = fileScans.get(i);
+            ScanState.FileSummary summary = parseFile(index, index.getJavaFiles().get(i), null, cached.hash, newDetectors(detectorFactories));
+            if (summary != null) {
+                summary.lastModified = cached.lastModified;
+                summary.length = cached.length;
+            }
+            return summary;
+        });
+        for (int i = 0; i < resolved.size(); i++) {
+            fileScans.set(resolved.get(i), summaries.get(i));
+        }
+        ScanMetrics.count("cache.resolvedRescanned", resolved.size());
+        logger.info("incremental scan: " + resolved.size() + " unchanged java files use symbol resolution, rescanned because project sources changed");
+    }
+
+    /**
+     * --since：改动过的文件里的结果都留下；其他文件的结果（来自增量扫描的缓存）只留调用链经过改动文件里的方法的，按"类名.方法名"比较
+     */
+    private static void keepTouchedFindings(ProjectIndex index, ScanResult scanResult, List<ScanState.FileSummary> fileScans) {
+        Set<String> changedMethods = new HashSet<>();
+        for (int i = 0; i < fileScans.size(); i++) {
+            ScanState.FileSummary summary = fileScans.get(i);
+            if (summary != null && index.inScope(index.getJavaFiles().get(i))) {
+                for (CallGraph.ClassInfo classInfo : summary.classes) {
+                    for (String method : classInfo.methods) {
+                        changedMethods.add(classInfo.name + "." + method);
+                    }
+                }
+            }
+        }
+        for (List<Finding> findings : scanResult.findings.values()) {
+            findings.removeIf(finding -> !index.inScope(new File(finding.filePath)) && !passesThrough(finding, changedMethods));
+        }
+        scanResult.findings.values().removeIf(List::isEmpty);
+    }
+
+    private static boolean passesThrough(Finding finding, Set<String> methods) {
+        for (Finding.ChainStep step : finding.callChain) {
+            if (methods.contains(step.className + "." + step.methodName) || methods.contains(step.calleeClass + "." + step.calleeMethod)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 每条结果所在的方法能否从HTTP入口走到、走的哪条路径，入口可达性只在有结果时计算一次
+     * callGraphBuilt为false时（只有拼接SQL这类不往上跟进的结果）用callersOf只解析结果的上层调用方所在的文件，不为此建整个调用链索引
+     */
+    private static void markEntryPaths(ProjectIndex index, ScanResult scanResult, List<ScanState.FileSummary> fileScans, boolean callGraphBuilt) {
+        if (scanResult.findings.isEmpty()) {
+            return;
+        }
+        CallGraph callGraph = callGraphBuilt ? index.getCallGraph() : callersOf(index, scanResult, fileScans);
+        EntryPointIndex entryPoints = callGraph.getEntryPoints();
+        for (List<Finding> findings : scanResult.findings.values()) {
+            for (Finding finding : findings) {
+                finding.entryPath = entryPoints.pathTo(finding.filePath, finding.className, finding.methodName);
+            }
+        }
+    }
+
+    /**
+     * 只包含结果所在方法的所有上层调用方的调用链索引：从结果的方法名出发，预筛跳过的文件里只解析出现了这些方法名的，
+     * 再把调用了这些方法名的方法名加进来接着找，直到不再变化；按方法名找只会多不会少，
+     * 从入口走到结果的路径上每一步都在里面，算出来的入口路径和用整个调用链索引一样
+     * 解析出来的摘要不放回fileScans，其他模块这时可能正在用它补全调用链索引
+     */
+    private static CallGraph callersOf(ProjectIndex index, ScanResult scanResult, List<ScanState.FileSummary> fileScans) {
+        List<ScanState.FileSummary> summaries = new ArrayList<>(fileScans);
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < summaries.size(); i++) {
+            if (summaries.get(i) != null && summaries.get(i).skipped) {
+                pending.add(i);
+            }
+        }
+        Set<String> methodNames = new HashSet<>();
+        for (List<Finding> findings : scanResult.findings.values()) {
+            for (Finding finding : findings) {
+                methodNames.add(finding.methodName);
+            }
+        }
+        Set<String> searched = new HashSet<>();
+        int parsed = 0;
+        while (true) {
+            // 已经解析的文件里调用了这些方法名的方法，一直加到不再变化
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                for (ScanState.FileSummary summary : summaries) {
+                    if (summary == null || summary.skipped) {
+                        continue;
+                    }
+                    for (CallGraph.CallSite callSite : summary.callSites) {
+                        if (methodNames.contains(callSite.methodName) && methodNames.add(callSite.callerMethod)) {
+                            grown = true;
+                        }
+                    }
+                }
+            }
+            Set<String> newNames = new HashSet<>(methodNames);
+            newNames.removeAll(searched);
+            if (newNames.isEmpty() || pending.isEmpty()) {
+                break;
+            }
+            searched.addAll(newNames);
+            TriggerFilter filter = TriggerFilter.forTokens(newNames);
+            List<Integer> matched = new ArrayList<>();
+            for (Integer i : ScanExecutor.map(pending, i -> {
+                SourceFile source = readSource(index, index.getJavaFiles().get(i));
+                return source == null || filter.matches(source.getContent()) ? i : null;
+            })) {
+                if (i != null) {
+                    matched.add(i);
+                }
+            }
+            pending.removeAll(new HashSet<>(matched));
+            List<ScanState.FileSummary> matchedSummaries = ScanExecutor.map(matched, i -> parseFile(index, index.getJavaFiles().get(i), null, null, Collections.emptyList()));
+            for (int i = 0; i < matched.size(); i++) {
+                summaries.set(matched.get(i), matchedSummaries.get(i));
+            }
+            parsed += matched.size();
+        }
+        logger.info("entry points: parsed " + parsed + " of " + (parsed + pending.size()) + " skipped java files that may call " + methodNames.size() + " method names");
+        ScanMetrics.count("entryPoints.parsedFiles", parsed);
+        List<ScanState.FileSummary> callers = new ArrayList<>();
+        for (ScanState.FileSummary summary : summaries) {
+            if (summary != null && !summary.skipped) {
+                callers.add(summary);
+            }
+        }
+        return buildCallGraph(index, callers);
+    }
+
+    private static CallGraph buildCallGraph(ProjectIndex index, List<ScanState.FileSummary> fileScans) {
+        CallGraph callGraph = new CallGraph(index);
+        ScanMetrics.Phase phase = ScanMetrics.phase("callGraph");
+        try {
+            for (ScanState.FileSummary summary : fileScans) {
+                if (summary != null) {
+                    callGraph.addFile(summary.classes, summary.callSites);
+                }
+            }
+        } finally {
+            phase.end();
+        }
+        callGraph.logSummary();
+        return callGraph;
+    }
+
+    // 预筛跳过、没解析的文件只记内容哈希，下次内容没变时不用再预筛，也知道它没改过；只提取了调用点的文件不写进状态
+    private static ScanState newState(String fingerprint, ProjectIndex index, List<ScanState.FileSummary> fileScans) {
+        ScanState state = new ScanState(fingerprint, index.getRootDir());
+        for (int i = 0; i < fileScans.size(); i++) {
+            ScanState.FileSummary summary = fileScans.get(i);
+            if (summary != null && !summary.indexOnly) {
+                state.put(index.getJavaFiles().get(i).getAbsolutePath(), summary);
+            }
+        }
+        return state;
+    }
+
+    private static List<Detector> newDetectors(List<Supplier<Detector>> detectorFactories) {
+        List<Detector> detectors = new ArrayList<>();
+        for (Supplier<Detector> detectorFactory : detectorFactories) {
+            detectors.add(detectorFactory.get());
+        }
+        return detectors;
+    }
+
+    // 规则和提取调用点的逻辑都参与指纹
+    private static String fingerprint(List<Supplier<Detector>> detectorFactories) {
+        List<Class<?>> classes = new ArrayList<>();
+        classes.add(ScanEngine.class);
+        classes.add(ScanContext.class);
+        classes.add(ResolutionService.class);
+        classes.add(CallGraph.class);
+        classes.add(EntryPointIndex.class);
+        classes.add(Finding.class);
+        for (Supplier<Detector> detectorFactory : detectorFactories) {
+            classes.add(detectorFactory.get().getClass());
+        }
+        return ScanState.fingerprint(classes);
+    }
+
+    private static Set<String> affectedMethods(ProjectIndex index, List<ScanState.FileSummary> fileScans, ScanState previous) {
+        Set<String> affectedMethods = new HashSet<>();
+        Set<String> currentFiles = new HashSet<>();
+        int reused = 0;
+        for (int i = 0; i < fileScans.size(); i++) {
+            String filePath = index.getJavaFiles().get(i).getAbsolutePath();
+            currentFiles.add(filePath);
+            ScanState.FileSummary summary = fileScans.get(i);
+            if (summary != null && summary.reused) {
+                reused++;
+                continue;
+            }
+            addMethodNames(summary, affectedMethods);
+            addMethodNames(previous.get(filePath), affectedMethods);
+        }
+        int deleted = 0;
+        for (Map.Entry<String, ScanState.FileSummary> entry : previous.getFiles().entrySet()) {
+            if (!currentFiles.contains(entry.getKey())) {
+                deleted++;
+                addMethodNames(entry.getValue(), affectedMethods);
+            }
+        }
+        logger.info("incremental scan: " + reused + " unchanged, " + (fileScans.size() - reused) + " changed or added, " + deleted + " deleted, " + affectedMethods.size() + " affected method names");
+        return affectedMethods;
+    }
+
+    private static void addMethodNames(ScanState.FileSummary summary, Set<String> methodNames) {
+        if (summary != null) {
+            for (CallGraph.CallSite callSite : summary.callSites) {
+                methodNames.add(callSite.methodName);
+            }
+        }
+    }
+
+    private static ScanState.FileSummary scanFile(ProjectIndex index, File javaFile, List<Supplier<Detector>> detectorFactories, ScanState previous, TriggerFilter triggerFilter) {
+        String hash = null;
+        // 文件内容只读一次，算哈希、预筛和解析共用
+        SourceFile source = null;
+        // 读内容之前先取修改时间和大小，读的过程中文件被改了，下次也会因为时间不一致重新扫
+        long lastModified = previous == null ? 0 : javaFile.lastModified();
+        long length = previous == null ? 0 : javaFile.length();
+        if (previous != null) {
+            ScanState.FileSummary cached = previous.get(javaFile.getAbsolutePath());
+            if (cached != null && cached.lastModified != 0 && cached.lastModified == lastModified && cached.length == length) {
+                ScanMetrics.count("cache.reused");
+                return cached.reuse(lastModified, length);
+            }
+            source = readSource(index, javaFile);
+            if (source != null) {
+                hash = ScanState.hash(source.getContent());
+            }
+            if (hash != null && cached != null && hash.equals(cached.hash)) {
+                ScanMetrics.count("cache.reused");
+                return cached.reuse(lastModified, length);
+            }
+        }
+        // --since时不在改动范围内的文件和预筛时没有触发词的文件先不解析，需要调用链索引时再解析
+        boolean outOfScope = !index.inScope(javaFile);
+        if (!outOfScope && triggerFilter != null && source == null) {
+            source = readSource(index, javaFile);
+        }
+        // 读不了的文件按有触发词处理，交给后面解析时报错
+        if (outOfScope || triggerFilter != null && source != null && !triggerFilter.matches(source.getContent())) {
+            ScanState.FileSummary pending = new ScanState.FileSummary(hash, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+            pending.skipped = true;
+            // 改动范围外的文件只提取调用点、没跑规则，不能写进增量扫描的状态
+            pending.indexOnly = outOfScope;
+            pending.lastModified = lastModified;
+            pending.length = length;
+            return pending;
+        }
+        ScanState.FileSummary summary = parseFile(index, javaFile, source, hash, newDetectors(detectorFactories));
+        if (summary != null) {
+            summary.lastModified = lastModified;
+            summary.length = length;
+        }
+        return summary;
+    }
+
+    // 读不了时返回null
+    private static SourceFile readSource(ProjectIndex index, File javaFile) {
+        try {
+            return index.getSource(javaFile);
+        } catch (IOException e) {
+            logger.warn("cannot read " + javaFile.getPath(), e);
+            return null;
+        }
+    }
+
+    // source是已经读好的文件内容，为null时解析时再读
+    private static ScanState.FileSummary parseFile(ProjectIndex index, File javaFile, SourceFile source, String hash, List<Detector> detectors) {
+        logger.info("scan file: " + javaFile.getName());
+        // 设置了--max-heap-target时，堆占用超过目标值就先等正在解析的文件处理完
+        boolean admitted = HeapBudget.acquire();
+        try {
+            return detectFile(index, javaFile, source, hash, detectors);
+        } finally {
+            if (admitted) {
+                HeapBudget.release();
+            }
+        }
+    }
+
+    // 解析并遍历一个文件，只把摘要带出去，lean模式下语法树在这里用完就释放
+    private static ScanState.FileSummary detectFile(ProjectIndex index, File javaFile, SourceFile source, String hash, List<Detector> detectors) {
+        CompilationUnit cu = index.getCompilationUnit(javaFile, source);
+        if (cu == null) {
+            return null;
+        }
+        if (!detectors.isEmpty()) {
+            index.bindSymbolResolver(cu);
+        }
+        ScanContext context = new ScanContext(index, javaFile.getAbsolutePath());
+        // 没开--profile时sample和timer都是null
+        ScanProfiler.Sample sample = ScanProfiler.begin();
+        ScanProfiler.RuleTimer timer = ScanProfiler.ruleTimer(detectors);
+        // 没有规则时只是为调用链索引提取调用点
+        ScanMetrics.Phase phase = ScanMetrics.phase(detectors.isEmpty() ? "index" : "detect");
+        try {
+            cu.accept(new DetectorDispatcher(detectors, timer), context);
+        } finally {
+            phase.end();
+        }
+        ScanProfiler.endDetect(javaFile.getAbsolutePath(), sample, timer);
+        ScanState.FileSummary summary = new ScanState.FileSummary(hash, context.getClasses(), context.getCallSites(), context.getFindings());
+        summary.resolved = context.usedResolution();
+        return summary;
+    }
+
+    // 唯一的一个visitor，遍历时维护当前类和方法，并把节点分发给每个规则
+    // Detector上对应节点类型的visit方法
+    private interface DetectorVisit<N> {
+        void visit(Detector detector, N node, ScanContext context);
+    }
+
+    private static class DetectorDispatcher extends VoidVisitorAdapter<ScanContext> {
+        private final List<Detector> detectors;
+        private final ScanProfiler.RuleTimer timer;
+
+        DetectorDispatcher(List<Detector> detectors, ScanProfiler.RuleTimer timer) {
+            this.detectors = detectors;
+            this.timer = timer;
+        }
+
+        // 节点依次交给每个规则，开了--profile时按规则计时
+        private <N> void dispatch(N node, ScanContext context, DetectorVisit<N> visit) {
+            for (int i = 0; i < detectors.size(); i++) {
+                Detector detector = detectors.get(i);
+                context.setCurrentDetector(detector);
+                if (timer == null) {
+                    visit.visit(detector, node, context);
+                } else {
+                    timer.begin();
+                    visit.visit(detector, node, context);
+                    timer.end(i);
+                }
+            }
+        }
+
+        @Override
+        public void visit(ClassOrInterfaceDeclaration classOrInterface, ScanContext context) {
+            context.enterClass(classOrInterface);
+            super.visit(classOrInterface, context);
+            context.exitClass();
+        }
+
+        @Override
+        public void visit(MethodDeclaration methodDeclaration, ScanContext context) {
+            String previousOwnMethodName = context.enterMethod(methodDeclaration);
+            super.visit(methodDeclaration, context);
+            context.exitMethod(methodDeclaration, previousOwnMethodName);
+        }
+
+        // 方法调用和new先交给规则再往下遍历（先序），嵌套的调用外层先上报，和原来各规则自己的visitor一致
+        @Override
+        public void visit(MethodCallExpr methodCall, ScanContext context) {
+            context.addCallSite(methodCall);
+            dispatch(methodCall, context, Detector::visit);
+            super.visit(methodCall, context);
+        }
+
+        @Override
+        public void visit(ObjectCreationExpr objectCreationExpr, ScanContext context) {
+            dispatch(objectCreationExpr, context, Detector::visit);
+            super.visit(objectCreationExpr, context);
+        }
+
+        @Override
+        public void visit(VariableDeclarator variableDeclarator, ScanContext context) {
+            super.visit(variableDeclarator, context);
+            dispatch(variableDeclarator, context, Detector::visit);
+        }
+
+        @Override
+        public void visit(BinaryExpr binaryExpr, ScanContext context) {
+            super.visit(binaryExpr, context);
+            dispatch(binaryExpr, context, Detector::visit);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.fupo.javaeasyscan;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @Describe 扫描阶段和计数器对应的JFR事件，录制方式：java -XX:StartFlightRecording=filename=scan.jfr -jar javaeasyscan.jar ...，再用jfr print --events javaeasyscan.* scan.jfr查看
+ * 不直接引用jdk.jfr：事件类型用EventFactory在运行时定义，方法都通过MethodHandle调用，这样8u262以前没有jdk.jfr的JDK8也能编译和运行，只是不记事件
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 14:20 2024/6/25
+ **/
+class ScanEvents {
+    // jdk.jfr不可用时都是null
+    private static final Object PHASE_FACTORY;
+    private static final Object COUNTER_FACTORY;
+    private static final MethodHandle NEW_EVENT;
+    private static final MethodHandle IS_ENABLED;
+    private static final MethodHandle SET;
+    private static final MethodHandle BEGIN;
+    private static final MethodHandle END;
+    private static final MethodHandle SHOULD_COMMIT;
+    private static final MethodHandle COMMIT;
+
+    static {
+        Object phaseFactory = null;
+        Object counterFactory = null;
+        MethodHandle[] handles = new MethodHandle[7];
+        try {
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle create = lookup.findStatic(factoryClass, "create", MethodType.methodType(factoryClass, List.class, List.class));
+            phaseFactory = create.invoke(
+                    eventAnnotations("javaeasyscan.Phase", "Scan Phase"),
+                    Collections.singletonList(field(String.class, "phase", "Phase")));
+            counterFactory = create.invoke(
+                    eventAnnotations("javaeasyscan.Counter", "Scan Counter"),
+                    Arrays.asList(field(String.class, "name", "Name"), field(long.class, "value", "Value")));
+            // 统一成Object参数，调用的地方不用引用jdk.jfr的类型
+            handles[0] = lookup.findVirtual(factoryClass, "newEvent", MethodType.methodType(eventClass)).asType(MethodType.methodType(Object.class, Object.class));
+            handles[1] = lookup.findVirtual(eventClass, "isEnabled", MethodType.methodType(boolean.class)).asType(MethodType.methodType(boolean.class, Object.class));
+            handles[2] = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class)).asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+            handles[3] = lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class)).asType(MethodType.methodType(void.class, Object.class));
+            handles[4] = lookup.findVirtual(eventClass, "end", MethodType.methodType(void.class)).asType(MethodType.methodType(void.class, Object.class));
+            handles[5] = lookup.findVirtual(eventClass, "shouldCommit", MethodType.methodType(boolean.class)).asType(MethodType.methodType(boolean.class, Object.class));
+            handles[6] = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class)).asType(MethodType.methodType(void.class, Object.class));
+        } catch (Throwable e) {
+            phaseFactory = null;
+            counterFactory = null;
+        }
+        PHASE_FACTORY = phaseFactory;
+        COUNTER_FACTORY = counterFactory;
+        NEW_EVENT = handles[0];
+        IS_ENABLED = handles[1];
+        SET = handles[2];
+        BEGIN = handles[3];
+        END = handles[4];
+        SHOULD_COMMIT = handles[5];
+        COMMIT = handles[6];
+    }
+
+    static boolean isAvailable() {
+        return PHASE_FACTORY != null;
+    }
+
+    // @Name、@Label、@Category("JavaEasyScan")
+    private static List<Object> eventAnnotations(String name, String label) throws ReflectiveOperationException {
+        Object category = Array.newInstance(String.class, 1);
+        Array.set(category, 0, "JavaEasyScan");
+        return Arrays.asList(annotation("jdk.jfr.Name", name), annotation("jdk.jfr.Label", label), annotation("jdk.jfr.Category", category));
+    }
+
+    private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+        return Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class)
+                .newInstance(Class.forName(type), value);
+    }
+
+    private static Object field(Class<?> type, String name, String label) throws ReflectiveOperationException {
+        return Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class)
+                .newInstance(type, name, Collections.singletonList(annotation("jdk.jfr.Label", label)));
+    }
+
+    static Object begin(String phase) {
+        try {
+            Object event = NEW_EVENT.invoke(PHASE_FACTORY);
+            // 没开录制时不用填字段，也不用提交
+            if (!(boolean) IS_ENABLED.invoke(event)) {
+                return null;
+            }
+            SET.invoke(event, 0, phase);
+            BEGIN.invoke(event);
+            return event;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    static void end(Object event) {
+        try {
+            END.invoke(event);
+            if ((boolean) SHOULD_COMMIT.invoke(event)) {
+                COMMIT.invoke(event);
+            }
+        } catch (Throwable e) {
+            // 记不了事件不影响扫描
+        }
+    }
+
+    static void counter(String name, long value) {
+        try {
+            Object event = NEW_EVENT.invoke(COUNTER_FACTORY);
+            if ((boolean) IS_ENABLED.invoke(event)) {
+                SET.invoke(event, 0, name);
+                SET.invoke(event, 1, value);
+                COMMIT.invoke(event);
+            }
+        } catch (Throwable e) {
+            // 记不了事件不影响扫描
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * @Describe 按文件并行扫描用的线程池，结果按输入顺序返回，保证和串行扫描的输出顺序一致
+ * 所有模块的文件级任务都提交到这一个池子里，同一时刻最多threads个任务在跑（--threads），每个任务占一个编号固定的槽位
+ * 解析器、符号解析这些每个线程一份的对象按槽位存（WorkerLocal），用虚拟线程时每个任务一个新线程，缓存也不会丢
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 20:48 2024/6/20
+ **/
+public class ScanExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(ScanExecutor.class);
+    // 当前线程正在跑的任务占的槽位，不在任务里时为null
+    private static final ThreadLocal<Integer> SLOT = new ThreadLocal<>();
+    private static int threads = Runtime.getRuntime().availableProcessors();
+    private static boolean virtualThreads;
+    private static ExecutorService pool;
+    private static BlockingQueue<Integer> slots;
+
+    /**
+     * 每个槽位一份的对象，用法和ThreadLocal一样；不在ScanExecutor任务里调用时退回到普通的ThreadLocal
+     */
+    public static final class WorkerLocal<T> {
+        private final Supplier<T> initial;
+        private final ThreadLocal<T> fallback;
+        private final Map<Integer, T> values = new ConcurrentHashMap<>();
+
+        private WorkerLocal(Supplier<T> initial) {
+            this.initial = initial;
+            this.fallback = ThreadLocal.withInitial(initial);
+        }
+
+        public T get() {
+            Integer slot = SLOT.get();
+            if (slot == null) {
+                return fallback.get();
+            }
+            T value = values.get(slot);
+            if (value == null) {
+                // 同一个槽位同一时刻只有一个任务在用，不会重复创建
+                value = initial.get();
+                values.put(slot, value);
+            }
+            return value;
+        }
+    }
+
+    public static <T> WorkerLocal<T> workerLocal(Supplier<T> initial) {
+        return new WorkerLocal<>(initial);
+    }
+
+    public static synchronized void setThreads(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threads must be >= 1: " + threadCount);
+        }
+        threads = threadCount;
+        shutdown();
+    }
+
+    public static synchronized int getThreads() {
+        return threads;
+    }
+
+    /**
+     * 用虚拟线程跑文件级任务（JDK21及以上），并发数仍然由threads限制；JDK不支持时退回到普通线程池
+     */
+    public static synchronized void setVirtualThreads(boolean enabled) {
+        virtualThreads = enabled;
+        shutdown();
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            if (virtualThreads) {
+                pool = newVirtualThreadExecutor();
+            }
+            if (pool == null) {
+                pool = new ForkJoinPool(threads);
+            }
+            slots = new ArrayBlockingQueue<>(threads);
+            for (int i = 0; i < threads; i++) {
+                slots.add(i);
+            }
+        }
+        return pool;
+    }
+
+    // 编译目标是JDK8，只能反射调用
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("virtual threads need JDK 21 or later, falling back to platform threads");
+            return null;
+        }
+    }
+
+    private static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * 对每个元素执行task，返回值的顺序和items一致；线程数为1时直接在当前线程串行执行
+     * 在任务里面再调map时也直接串行执行，不占着槽位等别的任务
+     */
+    public static <T, R> List<R> map(List<T> items, Function<T, R> task) {
+        List<R> results = new ArrayList<>(items.size());
+        if (getThreads() <= 1 || items.size() <= 1 || SLOT.get() != null) {
+            for (T item : items) {
+                results.add(task.apply(item));
+            }
+            return results;
+        }
+
+        ExecutorService executor = getPool();
+        BlockingQueue<Integer> taskSlots = slots;
+        List<Callable<R>> callables = new ArrayList<>(items.size());
+        for (T item : items) {
+            callables.add(() -> {
+                Integer slot = taskSlots.take();
+                SLOT.set(slot);
+                try {
+                    return task.apply(item);
+                } finally {
+                    SLOT.remove();
+                    taskSlots.add(slot);
+                }
+            });
+        }
+        try {
+            for (Future<R> future : executor.invokeAll(callables)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("scan interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("scan task failed", e.getCause());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,135 @@
+package org.fupo.javaeasyscan;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Describe 扫描各阶段的耗时和计数：文件发现、读文件、解析、规则遍历、符号解析、调用链跟进、XML扫描、写报告等
+ * 运行结束时输出一份JSON汇总；JDK带JFR时每个阶段同时作为JFR事件记录，线上扫描开着JFR录制就能看到，不用再挂profiler
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 14:02 2024/6/25
+ **/
+public class ScanMetrics {
+    // JDK8早期版本没有jdk.jfr，没有的时候不记JFR事件
+    private static final boolean JFR = ScanEvents.isAvailable();
+    private static final Map<String, PhaseStats> phases = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static volatile long startNanos = System.nanoTime();
+
+    // 一个阶段的累计：次数、总耗时、最长一次耗时
+    private static class PhaseStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        volatile long maxNanos;
+
+        void add(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            if (nanos > maxNanos) {
+                synchronized (this) {
+                    if (nanos > maxNanos) {
+                        maxNanos = nanos;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 一次阶段计时，在finally里调用end()
+     */
+    public static final class Phase {
+        private final String name;
+        private final long start;
+        private final Object event;
+
+        private Phase(String name) {
+            this.name = name;
+            this.event = JFR ? ScanEvents.begin(name) : null;
+            this.start = System.nanoTime();
+        }
+
+        public void end() {
+            long nanos = System.nanoTime() - start;
+            phases.computeIfAbsent(name, k -> new PhaseStats()).add(nanos);
+            if (event != null) {
+                ScanEvents.end(event);
+            }
+        }
+    }
+
+    public static Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    public static void count(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public static long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * 清空之前的统计，重新开始计时
+     */
+    public static void reset() {
+        phases.clear();
+        counters.clear();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * 汇总成JSON，同时把各计数器作为JFR事件提交
+     */
+    public static String summary() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"durationMs\":").append(millis(System.nanoTime() - startNanos));
+        json.append(",\"phases\":{");
+        boolean first = true;
+        for (Map.Entry<String, PhaseStats> entry : new TreeMap<>(phases).entrySet()) {
+            PhaseStats stats = entry.getValue();
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendString(json, entry.getKey());
+            json.append(":{\"count\":").append(stats.count.sum())
+                    .append(",\"totalMs\":").append(millis(stats.totalNanos.sum()))
+                    .append(",\"maxMs\":").append(millis(stats.maxNanos)).append('}');
+        }
+        json.append("},\"counters\":{");
+        first = true;
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendString(json, entry.getKey());
+            json.append(':').append(entry.getValue().sum());
+            if (JFR) {
+                ScanEvents.counter(entry.getKey(), entry.getValue().sum());
+            }
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    private static String millis(long nanos) {
+        // 固定用Locale.ROOT，有的语言环境小数点是逗号，JSON就坏了
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"').append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+    }
+}
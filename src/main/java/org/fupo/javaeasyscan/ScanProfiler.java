@@ -0,0 +1,236 @@
+package org.fupo.javaeasyscan;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Describe --profile模式：记录每个文件解析、每个规则在每个文件上的耗时和分配的内存，扫描结束后列出最耗时的文件、规则、文件+规则组合
+ * 用来判断该排除哪些目录（比如生成的几万行DAO）、该优化哪个规则；不开--profile时begin()直接返回null，各处只多一次判空
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:15 2024/6/26
+ **/
+public class ScanProfiler {
+    private static volatile boolean enabled;
+    private static volatile com.sun.management.ThreadMXBean allocationBean;
+    // key是文件绝对路径
+    private static final Map<String, FileCost> files = new ConcurrentHashMap<>();
+    // key是规则类名
+    private static final Map<String, Cost> rules = new ConcurrentHashMap<>();
+
+    // 累计耗时：墙钟时间和当前线程分配的字节数，JVM不支持统计分配字节数时bytes一直是0
+    static class Cost {
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder count = new LongAdder();
+
+        void add(long nanos, long bytes) {
+            this.nanos.add(nanos);
+            this.bytes.add(bytes);
+            this.count.increment();
+        }
+    }
+
+    static class FileCost {
+        final String path;
+        final Cost parse = new Cost();
+        final Cost detect = new Cost();
+        // 这个文件上每个规则的耗时，key是规则类名
+        final Map<String, Cost> rules = new ConcurrentHashMap<>();
+
+        FileCost(String path) {
+            this.path = path;
+        }
+
+        long totalNanos() {
+            return parse.nanos.sum() + detect.nanos.sum();
+        }
+
+        long totalBytes() {
+            return parse.bytes.sum() + detect.bytes.sum();
+        }
+    }
+
+    private static class RuleFileCost {
+        final String rule;
+        final String path;
+        final Cost cost;
+
+        RuleFileCost(String rule, String path, Cost cost) {
+            this.rule = rule;
+            this.path = path;
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * 开始时的采样点
+     */
+    public static final class Sample {
+        private final long nanos;
+        private final long bytes;
+
+        private Sample() {
+            this.bytes = allocatedBytes();
+            this.nanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * 一个文件遍历过程中每个规则的累计耗时，下标和规则列表一致，同一个文件只在一个线程里遍历，不需要同步
+     */
+    public static final class RuleTimer {
+        private final String[] names;
+        private final long[] nanos;
+        private final long[] bytes;
+        private final int[] count;
+        private long startNanos;
+        private long startBytes;
+
+        private RuleTimer(List<Detector> detectors) {
+            names = new String[detectors.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = detectors.get(i).getClass().getSimpleName();
+            }
+            nanos = new long[names.length];
+            bytes = new long[names.length];
+            count = new int[names.length];
+        }
+
+        public void begin() {
+            startBytes = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        public void end(int rule) {
+            nanos[rule] += System.nanoTime() - startNanos;
+            bytes[rule] += allocatedBytes() - startBytes;
+            count[rule]++;
+        }
+    }
+
+    public static void enable() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        // 分配字节数是HotSpot的扩展接口，不支持时只统计耗时
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+            if (bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                allocationBean = bean;
+            }
+        }
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 没开--profile时返回null
+     */
+    public static Sample begin() {
+        return enabled ? new Sample() : null;
+    }
+
+    public static void endParse(String path, Sample sample) {
+        if (sample != null) {
+            file(path).parse.add(System.nanoTime() - sample.nanos, allocatedBytes() - sample.bytes);
+        }
+    }
+
+    /**
+     * 没开--profile时返回null
+     */
+    public static RuleTimer ruleTimer(List<Detector> detectors) {
+        return enabled ? new RuleTimer(detectors) : null;
+    }
+
+    public static void endDetect(String path, Sample sample, RuleTimer timer) {
+        if (sample == null) {
+            return;
+        }
+        FileCost fileCost = file(path);
+        fileCost.detect.add(System.nanoTime() - sample.nanos, allocatedBytes() - sample.bytes);
+        if (timer != null) {
+            for (int i = 0; i < timer.names.length; i++) {
+                if (timer.count[i] == 0) {
+                    continue;
+                }
+                fileCost.rules.computeIfAbsent(timer.names[i], k -> new Cost()).add(timer.nanos[i], timer.bytes[i]);
+                rules.computeIfAbsent(timer.names[i], k -> new Cost()).add(timer.nanos[i], timer.bytes[i]);
+            }
+        }
+    }
+
+    private static FileCost file(String path) {
+        return files.computeIfAbsent(path, FileCost::new);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = allocationBean;
+        return bean == null ? 0 : bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * 最耗时的topN个文件、规则、文件+规则组合，路径相对于rootDir
+     */
+    public static String report(File rootDir, int topN) {
+        StringBuilder out = new StringBuilder();
+        out.append("\n==== profile: top ").append(topN).append(" files (parse + detect) ====\n");
+        List<FileCost> fileCosts = new ArrayList<>(files.values());
+        fileCosts.sort(Comparator.comparingLong(FileCost::totalNanos).reversed());
+        for (FileCost fileCost : fileCosts.subList(0, Math.min(topN, fileCosts.size()))) {
+            out.append(String.format(Locale.ROOT, "%10s %10s  parse %10s %10s  detect %10s %10s  %s%n",
+                    millis(fileCost.totalNanos()), bytes(fileCost.totalBytes()),
+                    millis(fileCost.parse.nanos.sum()), bytes(fileCost.parse.bytes.sum()),
+                    millis(fileCost.detect.nanos.sum()), bytes(fileCost.detect.bytes.sum()),
+                    relativize(rootDir, fileCost.path)));
+        }
+
+        out.append("\n==== profile: rules ====\n");
+        List<Map.Entry<String, Cost>> ruleCosts = new ArrayList<>(rules.entrySet());
+        ruleCosts.sort(Comparator.comparingLong((Map.Entry<String, Cost> entry) -> entry.getValue().nanos.sum()).reversed());
+        for (Map.Entry<String, Cost> entry : ruleCosts.subList(0, Math.min(topN, ruleCosts.size()))) {
+            out.append(String.format(Locale.ROOT, "%10s %10s  %6d files  %s%n",
+                    millis(entry.getValue().nanos.sum()), bytes(entry.getValue().bytes.sum()), entry.getValue().count.sum(), entry.getKey()));
+        }
+
+        out.append("\n==== profile: top ").append(topN).append(" rule x file ====\n");
+        List<RuleFileCost> pairs = new ArrayList<>();
+        for (FileCost fileCost : fileCosts) {
+            for (Map.Entry<String, Cost> entry : fileCost.rules.entrySet()) {
+                pairs.add(new RuleFileCost(entry.getKey(), fileCost.path, entry.getValue()));
+            }
+        }
+        pairs.sort(Comparator.comparingLong((RuleFileCost pair) -> pair.cost.nanos.sum()).reversed());
+        for (RuleFileCost pair : pairs.subList(0, Math.min(topN, pairs.size()))) {
+            out.append(String.format(Locale.ROOT, "%10s %10s  %s  %s%n",
+                    millis(pair.cost.nanos.sum()), bytes(pair.cost.bytes.sum()), pair.rule, relativize(rootDir, pair.path)));
+        }
+        return out.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1fms", nanos / 1_000_000.0);
+    }
+
+    private static String bytes(long bytes) {
+        if (allocationBean == null) {
+            return "n/a";
+        }
+        return String.format(Locale.ROOT, "%.1fKB", bytes / 1024.0);
+    }
+
+    private static String relativize(File rootDir, String path) {
+        String root = rootDir.getAbsolutePath();
+        if (path.startsWith(root) && path.length() > root.length()) {
+            return path.substring(root.length() + 1);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,103 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * @Describe 模块调度：各扫描模块（Java规则遍历、MyBatis XML）作为并发任务同时跑，总耗时接近最慢的那个模块而不是各模块相加
+ * 模块任务只负责调度，文件级的并行都走ScanExecutor的同一个线程池，总并发数仍由--threads控制
+ * 报告按登记的顺序一个接一个地写：某个模块算完、并且排在前面的报告都写完之后马上写它的，报告顺序和串行扫描一致，同一时刻只有一个话题在写
+ * 某个模块失败时不影响其他模块的报告，等所有报告写完后再把异常抛出去
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:30 2024/6/29
+ **/
+public class ScanScheduler implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ScanScheduler.class);
+
+    private final ExecutorService modules;
+    private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    private CompletableFuture<Void> reports = CompletableFuture.completedFuture(null);
+
+    public ScanScheduler() {
+        AtomicInteger threadCount = new AtomicInteger();
+        modules = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "scan-module-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 提交一个模块，马上返回
+     */
+    public <T> CompletableFuture<T> submit(String name, Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        modules.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                result.complete(task.call());
+                logger.info("module " + name + " finished in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+            } catch (Throwable e) {
+                logger.error("module " + name + " failed", e);
+                failures.add(e);
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 登记一个话题的报告：result算完、前面登记的报告都写完后调用reporter；result失败时跳过这个报告
+     */
+    public synchronized <T> void report(CompletableFuture<T> result, Consumer<T> reporter) {
+        reports = reports.handle((ignored, error) -> null)
+                .thenCompose(ignored -> result)
+                .thenAccept(value -> {
+                    ScanMetrics.Phase phase = ScanMetrics.phase("report");
+                    try {
+                        reporter.accept(value);
+                    } catch (RuntimeException e) {
+                        logger.error("report failed", e);
+                        failures.add(e);
+                        throw e;
+                    } finally {
+                        phase.end();
+                    }
+                });
+    }
+
+    /**
+     * 等所有登记过的报告写完（包括失败跳过的），有模块或报告失败时抛出第一个异常
+     */
+    public void await() throws Exception {
+        CompletableFuture<Void> last;
+        synchronized (this) {
+            last = reports;
+        }
+        try {
+            last.join();
+        } catch (CompletionException | CancellationException e) {
+            // 失败的已经记在failures里了
+        }
+        if (!failures.isEmpty()) {
+            Throwable failure = failures.get(0);
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+            }
+            throw new ExecutionException(failure);
+        }
+    }
+
+    @Override
+    public void close() {
+        modules.shutdown();
+    }
+}
@@ -0,0 +1,447 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * @Describe 增量扫描的状态：每个文件的内容哈希，以及这个文件贡献的类信息、调用点和扫描结果，
+ * 下次扫描时内容没变的文件直接复用，不再解析
+ * 状态存成一个紧凑的二进制缓存文件，路径都相对项目根目录保存，可以作为构建产物在不同机器之间共享，读取时不需要JavaParser
+ * 缓存格式：
+ * magic(int) schemaVersion(short) fingerprint(str) 项目根目录(str) 字符串表 文件数 [相对路径 哈希 是否预筛跳过 是否用了符号解析 类 调用点 结果(含调用链)]...
+ * 字符串都写成字符串表里的序号，数字都是变长编码；在别的根目录下写的缓存（比如另一台CI机器上）照样按相对路径读，只是缓存里的调用链全部重新跟进
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 16:05 2024/6/22
+ **/
+public class ScanState {
+    private static final Logger logger = LoggerFactory.getLogger(ScanState.class);
+    private static final int MAGIC = 0x4A455343;
+    // 缓存格式变了就加一，旧的缓存直接作废
+    private static final int SCHEMA_VERSION = 7;
+    public static final String CACHE_FILE = "scan-cache.bin";
+
+    // 一个文件的扫描摘要
+    static class FileSummary {
+        final String hash;
+        final List<CallGraph.ClassInfo> classes;
+        final List<CallGraph.CallSite> callSites;
+        final List<Finding> findings;
+        // 是否是从上次的状态里直接拿的
+        boolean reused;
+        // 没有解析：预筛时没有触发词，或者--since时不在改动范围内；classes、callSites、findings都是空的，需要调用链索引时再解析
+        boolean skipped;
+        // 只提取了调用点、没有跑规则（--since时改动范围外的文件），不写进状态
+        boolean indexOnly;
+        // 规则用过符号解析，有别的项目文件改动时不能直接复用
+        boolean resolved;
+        // 解析前文件的修改时间和大小，只在常驻进程的内存里用，不写进缓存文件；0表示不知道
+        long lastModified;
+        long length;
+
+        FileSummary(String hash, List<CallGraph.ClassInfo> classes, List<CallGraph.CallSite> callSites, List<Finding> findings) {
+            this.hash = hash;
+            this.classes = classes;
+            this.callSites = callSites;
+            this.findings = findings;
+        }
+
+        // 这次扫描直接复用：复制一份再标记，上次状态里的对象不动，扫描中途失败时上次的状态还能接着用
+        FileSummary reuse(long lastModified, long length) {
+            FileSummary summary = new FileSummary(hash, classes, callSites, findings);
+            summary.reused = true;
+            summary.skipped = skipped;
+            summary.indexOnly = indexOnly;
+            summary.resolved = resolved;
+            summary.lastModified = lastModified;
+            summary.length = length;
+            return summary;
+        }
+    }
+
+    // 规则和扫描器字节码的哈希，规则或者扫描逻辑变了之前的结果就不能用了
+    private final String fingerprint;
+    private final File rootDir;
+    // 缓存是在别的项目根目录下写的
+    private boolean relocated;
+    // key是文件绝对路径
+    private final Map<String, FileSummary> files = new LinkedHashMap<>();
+
+    ScanState(String fingerprint, File rootDir) {
+        this.fingerprint = fingerprint;
+        this.rootDir = rootDir;
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    boolean isRelocated() {
+        return relocated;
+    }
+
+    FileSummary get(String filePath) {
+        return files.get(filePath);
+    }
+
+    void put(String filePath, FileSummary summary) {
+        files.put(filePath, summary);
+    }
+
+    Map<String, FileSummary> getFiles() {
+        return files;
+    }
+
+    /**
+     * 读取缓存，没有、读不了、格式版本或规则变了都返回一个空状态，相当于全量扫描
+     */
+    static ScanState load(File cacheFile, String fingerprint, File rootDir) {
+        if (cacheFile.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+                ScanState state = read(in, fingerprint, rootDir);
+                if (state != null) {
+                    logger.info("load scan cache: " + state.files.size() + " files from " + cacheFile.getAbsolutePath());
+                    return state;
+                }
+                logger.info("scanner or rules changed, ignore scan cache " + cacheFile.getAbsolutePath());
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                logger.warn("Failed to load scan cache " + cacheFile.getAbsolutePath() + ": " + e);
+            }
+        }
+        return new ScanState(fingerprint, rootDir);
+    }
+
+    void save(File cacheFile) {
+        File cacheDir = cacheFile.getAbsoluteFile().getParentFile();
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            logger.warn("Failed to create cache dir: " + cacheDir.getAbsolutePath());
+            return;
+        }
+        // 先写临时文件再改名，写到一半中断也不会留下损坏的缓存
+        File tempFile = new File(cacheDir, cacheFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            write(out);
+        } catch (IOException e) {
+            logger.warn("Failed to save scan cache " + cacheFile.getAbsolutePath() + ": " + e);
+            return;
+        }
+        if (cacheFile.exists() && !cacheFile.delete() || !tempFile.renameTo(cacheFile)) {
+            logger.warn("Failed to save scan cache " + cacheFile.getAbsolutePath());
+            return;
+        }
+        logger.info("save scan cache: " + files.size() + " files, " + cacheFile.length() + " bytes to " + cacheFile.getAbsolutePath());
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        // 先写正文，同时建字符串表，再把表头、字符串表和正文一起写出去
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        writeVarInt(body, files.size());
+        for (Map.Entry<String, FileSummary> entry : files.entrySet()) {
+            FileSummary summary = entry.getValue();
+            writeVarInt(body, strings.id(relativePath(entry.getKey())));
+            writeHash(body, summary.hash);
+            body.writeBoolean(summary.skipped);
+            body.writeBoolean(summary.resolved);
+
+            Map<CallGraph.ClassInfo, Integer> classIds = new IdentityHashMap<>();
+            writeVarInt(body, summary.classes.size());
+            for (CallGraph.ClassInfo classInfo : summary.classes) {
+                classIds.put(classInfo, classIds.size());
+                writeVarInt(body, strings.id(classInfo.name));
+                body.writeBoolean(classInfo.isInterface);
+                writeStrings(body, strings, classInfo.implementedTypes);
+                writeStrings(body, strings, classInfo.annotations);
+                writeStrings(body, strings, classInfo.methods);
+                writeStrings(body, strings, classInfo.mappingMethods);
+            }
+
+            writeVarInt(body, summary.callSites.size());
+            for (CallGraph.CallSite callSite : summary.callSites) {
+                writeVarInt(body, callSite.line + 1);
+                writeVarInt(body, classIds.get(callSite.callerClass));
+                writeVarInt(body, strings.id(callSite.callerMethod));
+                writeVarInt(body, strings.id(callSite.ownerMethod));
+                writeVarInt(body, strings.id(callSite.methodName));
+                writeVarInt(body, strings.id(callSite.scope));
+            }
+
+            writeVarInt(body, summary.findings.size());
+            for (Finding finding : summary.findings) {
+                writeVarInt(body, strings.id(finding.topic));
+                writeVarInt(body, finding.lineNumber + 1);
+                writeVarInt(body, strings.id(finding.className));
+                writeVarInt(body, strings.id(finding.methodName));
+                writeVarInt(body, strings.id(finding.snippet));
+                writeVarInt(body, strings.id(finding.message));
+                writeVarInt(body, strings.id(finding.context));
+                body.writeBoolean(finding.traceCallers);
+                writeVarInt(body, strings.id(finding.detectorClass == null ? null : finding.detectorClass.getName()));
+                writeVarInt(body, finding.callChain.size());
+                for (Finding.ChainStep step : finding.callChain) {
+                    writeVarInt(body, step.kind.ordinal());
+                    writeVarInt(body, strings.id(relativePath(step.filePath)));
+                    writeVarInt(body, step.line + 1);
+                    writeVarInt(body, strings.id(step.className));
+                    writeVarInt(body, strings.id(step.methodName));
+                    writeVarInt(body, strings.id(step.calleeClass));
+                    writeVarInt(body, strings.id(step.calleeMethod));
+                    writeVarInt(body, strings.id(step.code));
+                    writeVarInt(body, strings.id(step.detail));
+                }
+                writeStrings(body, strings, finding.callChainMethods == null ? null : new ArrayList<>(finding.callChainMethods));
+            }
+        }
+        body.flush();
+
+        out.writeInt(MAGIC);
+        out.writeShort(SCHEMA_VERSION);
+        writeString(out, fingerprint);
+        writeString(out, rootPath(rootDir));
+        writeVarInt(out, strings.values.size());
+        for (String value : strings.values) {
+            writeString(out, value);
+        }
+        bodyBytes.writeTo(out);
+    }
+
+    private static ScanState read(DataInputStream in, String fingerprint, File rootDir) throws IOException, ClassNotFoundException {
+        if (in.readInt() != MAGIC || in.readShort() != SCHEMA_VERSION || !fingerprint.equals(readString(in))) {
+            return null;
+        }
+        String writtenRoot = readString(in);
+        int stringCount = readVarInt(in);
+        String[] strings = new String[stringCount + 1];
+        for (int i = 1; i <= stringCount; i++) {
+            strings[i] = readString(in);
+        }
+
+        ScanState state = new ScanState(fingerprint, rootDir);
+        if (!rootPath(rootDir).equals(writtenRoot)) {
+            logger.info("scan cache was written under " + writtenRoot + ", read relative to " + rootPath(rootDir) + " and re-trace cached call chains");
+            state.relocated = true;
+        }
+        int fileCount = readVarInt(in);
+        for (int f = 0; f < fileCount; f++) {
+            String filePath = new File(rootDir, strings[readVarInt(in)]).getAbsolutePath();
+            String hash = readHash(in);
+            boolean skipped = in.readBoolean();
+            boolean resolved = in.readBoolean();
+
+            int classCount = readVarInt(in);
+            List<CallGraph.ClassInfo> classes = new ArrayList<>(classCount);
+            for (int i = 0; i < classCount; i++) {
+                String name = strings[readVarInt(in)];
+                boolean isInterface = in.readBoolean();
+                List<String> implementedTypes = readStrings(in, strings);
+                List<String> annotations = readStrings(in, strings);
+                List<String> methods = readStrings(in, strings);
+                List<String> mappingMethods = readStrings(in, strings);
+                classes.add(new CallGraph.ClassInfo(filePath, name, isInterface, implementedTypes, annotations, methods, mappingMethods));
+            }
+
+            int callSiteCount = readVarInt(in);
+            List<CallGraph.CallSite> callSites = new ArrayList<>(callSiteCount);
+            for (int i = 0; i < callSiteCount; i++) {
+                int line = readVarInt(in) - 1;
+                CallGraph.ClassInfo callerClass = classes.get(readVarInt(in));
+                String callerMethod = strings[readVarInt(in)];
+                String ownerMethod = strings[readVarInt(in)];
+                String methodName = strings[readVarInt(in)];
+                String scope = strings[readVarInt(in)];
+                callSites.add(new CallGraph.CallSite(filePath, line, callerClass, callerMethod, ownerMethod, methodName, scope));
+            }
+
+            int findingCount = readVarInt(in);
+            List<Finding> findings = new ArrayList<>(findingCount);
+            for (int i = 0; i < findingCount; i++) {
+                String topic = strings[readVarInt(in)];
+                int lineNumber = readVarInt(in) - 1;
+                String className = strings[readVarInt(in)];
+                String methodName = strings[readVarInt(in)];
+                String snippet = strings[readVarInt(in)];
+                String message = strings[readVarInt(in)];
+                String context = strings[readVarInt(in)];
+                boolean traceCallers = in.readBoolean();
+                Finding finding = new Finding(topic, filePath, lineNumber, className, methodName, snippet, message, traceCallers);
+                finding.context = context;
+                String detectorClass = strings[readVarInt(in)];
+                finding.detectorClass = detectorClass == null ? null : Class.forName(detectorClass);
+                int stepCount = readVarInt(in);
+                for (int s = 0; s < stepCount; s++) {
+                    Finding.ChainStep.Kind kind = Finding.ChainStep.Kind.values()[readVarInt(in)];
+                    String stepFilePath = new File(rootDir, strings[readVarInt(in)]).getAbsolutePath();
+                    int stepLine = readVarInt(in) - 1;
+                    finding.callChain.add(new Finding.ChainStep(kind, stepFilePath, stepLine, strings[readVarInt(in)], strings[readVarInt(in)], strings[readVarInt(in)], strings[readVarInt(in)], strings[readVarInt(in)], strings[readVarInt(in)]));
+                }
+                List<String> callChainMethods = readStrings(in, strings);
+                finding.callChainMethods = callChainMethods == null ? null : new HashSet<>(callChainMethods);
+                findings.add(finding);
+            }
+            FileSummary summary = new FileSummary(hash, classes, callSites, findings);
+            summary.skipped = skipped;
+            summary.resolved = resolved;
+            state.put(filePath, summary);
+        }
+        return state;
+    }
+
+    private static String rootPath(File rootDir) {
+        return rootDir.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    // 缓存里的路径统一用相对项目根目录、以/分隔的形式
+    private String relativePath(String filePath) {
+        return rootDir.getAbsoluteFile().toPath().relativize(new File(filePath).toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    // 字符串表，序号0表示null
+    private static class StringTable {
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+
+        int id(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                values.add(value);
+                id = values.size();
+                ids.put(value, id);
+            }
+            return id;
+        }
+    }
+
+    // 列表为null时写0，否则写长度+1
+    private static void writeStrings(DataOutputStream out, StringTable strings, List<String> values) throws IOException {
+        if (values == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, values.size() + 1);
+        for (String value : values) {
+            writeVarInt(out, strings.id(value));
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in, String[] strings) throws IOException {
+        int size = readVarInt(in) - 1;
+        if (size < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(strings[readVarInt(in)]);
+        }
+        return values;
+    }
+
+    // 哈希按原始字节写，null写长度0
+    private static void writeHash(DataOutputStream out, String hash) throws IOException {
+        if (hash == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = new byte[hash.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hash.substring(i * 2, i * 2 + 2), 16);
+        }
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readHash(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return bytes.length == 0 ? null : toHex(bytes);
+    }
+
+    // writeUTF最多只能写64K，调用链可能更长，这里用长度+UTF-8字节
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * 规则和扫描器的指纹：这些类（连同外部类）的字节码哈希，改了规则或扫描逻辑重新编译后指纹就变了
+     */
+    static String fingerprint(List<Class<?>> classes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Class<?> clazz : classes) {
+                for (Class<?> c = clazz; c != null; c = c.getEnclosingClass()) {
+                    digest.update(c.getName().getBytes(StandardCharsets.UTF_8));
+                    try (InputStream in = c.getClassLoader().getResourceAsStream(c.getName().replace('.', '/') + ".class")) {
+                        if (in != null) {
+                            byte[] buffer = new byte[8192];
+                            int read;
+                            while ((read = in.read(buffer)) != -1) {
+                                digest.update(buffer, 0, read);
+                            }
+                        }
+                    } catch (IOException e) {
+                        logger.warn("Failed to read class file of " + c.getName(), e);
+                    }
+                }
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error generating hash", e);
+        }
+    }
+
+    static String hash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return toHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error generating hash", e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : hash) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Describe --watch：监听源码目录（java和Mapper XML所在的所有子目录），文件一改就增量重扫，只重新解析改过的文件、只重新跟进经过改动方法的调用链（见WarmScanner）
+ * 连续的一串改动（保存、格式化、切分支）合并成一次扫描：收到事件后等到DEBOUNCE_MS内没有新事件再扫
+ * 结果变化以jsonl流的形式输出到标准输出，每行是{"change":"added"|"removed","finding":{...}}，finding的格式和jsonl报告的一行一样；启动时的第一次扫描全部作为added输出
+ * 事件只用来决定什么时候重扫，哪些文件变了仍然按修改时间和大小判断，事件丢了（OVERFLOW）也不会漏
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:15 2024/7/1
+ **/
+public class ScanWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(ScanWatcher.class);
+    private static final long DEBOUNCE_MS = 200;
+
+    private final File rootDir;
+    private final WarmScanner scanner;
+    private final PrintStream out;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    private WatchService watchService;
+    // 上一次扫描的结果，jsonl记录，按输出顺序
+    private Set<String> published = new LinkedHashSet<>();
+
+    public ScanWatcher(File rootDir, boolean lean, PrintStream out) {
+        this.rootDir = rootDir.getAbsoluteFile();
+        this.scanner = new WarmScanner(lean);
+        this.out = out;
+    }
+
+    /**
+     * 一直运行到进程被结束
+     */
+    public void run() throws Exception {
+        watchService = FileSystems.getDefault().newWatchService();
+        registerTree(rootDir.toPath());
+        logger.info("watch: " + watchedDirs.size() + " directories under " + rootDir.getPath());
+        publish(scanner.scan(rootDir, false));
+        while (true) {
+            boolean changed = drain(watchService.take());
+            WatchKey key;
+            while ((key = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                changed |= drain(key);
+            }
+            if (changed) {
+                publish(scanner.scan(rootDir, false));
+            }
+        }
+    }
+
+    // 隐藏目录（.git、.idea、缓存目录）不监听
+    private void registerTree(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(start) && dir.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                watchedDirs.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // 遍历过程中被删掉的目录直接跳过
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // 取出一个目录的事件，有java/xml文件或者子目录的变化时返回true；新建的子目录接着监听
+    private boolean drain(WatchKey key) throws IOException {
+        Path dir = watchedDirs.get(key);
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            String name = child.getFileName().toString();
+            if (name.endsWith(".java") || name.endsWith(".xml")) {
+                changed = true;
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child) && !name.startsWith(".")) {
+                registerTree(child);
+                changed = true;
+            }
+        }
+        if (!key.reset()) {
+            // 目录被删掉了，里面的文件也跟着没了
+            watchedDirs.remove(key);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private void publish(WarmScanner.Result result) {
+        Set<String> current = new LinkedHashSet<>();
+        for (Finding finding : result.findings) {
+            StringBuilder record = new StringBuilder();
+            StructuredReport.appendJsonLine(record, finding);
+            current.add(record.toString());
+        }
+        int added = 0;
+        int removed = 0;
+        for (String record : published) {
+            if (!current.contains(record)) {
+                out.println("{\"change\":\"removed\",\"finding\":" + record + "}");
+                removed++;
+            }
+        }
+        for (String record : current) {
+            if (!published.contains(record)) {
+                out.println("{\"change\":\"added\",\"finding\":" + record + "}");
+                added++;
+            }
+        }
+        out.flush();
+        published = current;
+        logger.info("watch: " + added + " added, " + removed + " removed, " + current.size() + " findings in total, rescan took " + result.elapsedMs + "ms");
+    }
+}
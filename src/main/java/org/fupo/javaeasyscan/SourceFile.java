@@ -0,0 +1,102 @@
+package org.fupo.javaeasyscan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * @Describe 源码文件缓存：文件只读一次，预先算好每一行的起始偏移，取某一行或前后几行都不用再读文件
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 16:05 2024/6/20
+ **/
+public class SourceFile {
+    private final String path;
+    private final String content;
+    // lineStarts[i]是第i+1行在content里的起始位置，多放一个结尾位置方便算最后一行
+    private final int[] lineStarts;
+
+    public SourceFile(String path, String content) {
+        this.path = path;
+        this.content = content;
+        this.lineStarts = computeLineStarts(content);
+    }
+
+    public static SourceFile read(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        return new SourceFile(file.getAbsolutePath(), new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    // 和Files.readAllLines一样，\n、\r、\r\n都算换行
+    private static int[] computeLineStarts(String content) {
+        int[] starts = new int[64];
+        int count = 0;
+        starts[count++] = 0;
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (c == '\r' || c == '\n') {
+                if (c == '\r' && i + 1 < length && content.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        // 文件以换行结尾时不多算一个空行
+        if (count > 1 && starts[count - 1] == length) {
+            count--;
+        }
+        int[] result = Arrays.copyOf(starts, count + 1);
+        result[count] = length;
+        return result;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public int getLineCount() {
+        return content.isEmpty() ? 0 : lineStarts.length - 1;
+    }
+
+    /**
+     * 取第lineNumber行（从1开始），去掉首尾空白，超出范围返回空串
+     */
+    public String getLine(int lineNumber) {
+        return getRawLine(lineNumber).trim();
+    }
+
+    /**
+     * 取第lineNumber行前后各radius行，保留原始缩进，报告里展示上下文用
+     */
+    public String getContext(int lineNumber, int radius) {
+        int from = Math.max(1, lineNumber - radius);
+        int to = Math.min(getLineCount(), lineNumber + radius);
+        StringBuilder context = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            context.append(getRawLine(i)).append("\n");
+        }
+        return context.toString();
+    }
+
+    private String getRawLine(int lineNumber) {
+        if (lineNumber < 1 || lineNumber > getLineCount()) {
+            return "";
+        }
+        int start = lineStarts[lineNumber - 1];
+        int end = lineStarts[lineNumber];
+        while (end > start && (content.charAt(end - 1) == '\n' || content.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return content.substring(start, end);
+    }
+}
@@ -0,0 +1,207 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * @Describe 机器可读的报告，给CI和漏洞管理平台用：sarif（2.1.0）或者jsonl（一行一条结果）
+ * 每条结果一条记录，写完就丢，不经过html模板，也不在内存里攒结果，结果再多内存占用也不变
+ * 记录内容：模块、文件、行、类、方法、代码片段、调用链
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:41 2024/6/24
+ **/
+public class StructuredReport implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(StructuredReport.class);
+
+    private final boolean sarif;
+    private final Writer writer;
+    private boolean firstResult = true;
+
+    StructuredReport(String format, String filePath) throws IOException {
+        this.sarif = "sarif".equals(format);
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filePath), StandardCharsets.UTF_8));
+        if (sarif) {
+            writer.write("{\"$schema\":\"https://json.schemastore.org/sarif-2.1.0.json\",\"version\":\"2.1.0\",\"runs\":[{\"tool\":{\"driver\":{\"name\":\"JavaEasyScan\",\"informationUri\":\"https://github.com/novysodope/javaeasyscan\"}},\"results\":[\n");
+        }
+    }
+
+    public synchronized void write(Finding finding) {
+        StringBuilder record = new StringBuilder();
+        if (sarif) {
+            if (!firstResult) {
+                record.append(",\n");
+            }
+            appendSarifResult(record, finding);
+        } else {
+            appendJsonLine(record, finding);
+            record.append('\n');
+        }
+        firstResult = false;
+        try {
+            writer.write(record.toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (sarif) {
+                writer.write("\n]}]}\n");
+            }
+            writer.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close structured report", e);
+        }
+    }
+
+    // 常驻进程模式返回的JSON里每条结果也是这个格式
+    static void appendJsonLine(StringBuilder out, Finding finding) {
+        out.append("{\"module\":");
+        appendString(out, finding.topic);
+        out.append(",\"file\":");
+        appendString(out, finding.filePath);
+        out.append(",\"line\":").append(finding.lineNumber);
+        out.append(",\"class\":");
+        appendString(out, finding.className);
+        out.append(",\"method\":");
+        appendString(out, finding.methodName);
+        out.append(",\"snippet\":");
+        appendString(out, finding.snippet);
+        out.append(",\"callChain\":");
+        appendSteps(out, finding.callChain);
+        // 入口走不到时为null，方法本身是入口时为空数组
+        out.append(",\"entryPath\":");
+        if (finding.entryPath == null) {
+            out.append("null");
+        } else {
+            appendSteps(out, finding.entryPath);
+        }
+        out.append('}');
+    }
+
+    private static void appendSteps(StringBuilder out, List<Finding.ChainStep> steps) {
+        out.append('[');
+        for (int i = 0; i < steps.size(); i++) {
+            Finding.ChainStep step = steps.get(i);
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append("{\"kind\":");
+            appendString(out, step.kind.name());
+            out.append(",\"file\":");
+            appendString(out, step.filePath);
+            out.append(",\"line\":").append(step.line);
+            out.append(",\"class\":");
+            appendString(out, step.className);
+            out.append(",\"method\":");
+            appendString(out, step.methodName);
+            out.append(",\"calleeClass\":");
+            appendString(out, step.calleeClass);
+            out.append(",\"calleeMethod\":");
+            appendString(out, step.calleeMethod);
+            out.append(",\"code\":");
+            appendString(out, step.code);
+            out.append('}');
+        }
+        out.append(']');
+    }
+
+    private static void appendSarifResult(StringBuilder out, Finding finding) {
+        out.append("{\"ruleId\":");
+        appendString(out, finding.topic);
+        out.append(",\"level\":\"error\",\"message\":{\"text\":");
+        appendString(out, finding.topic + ": " + finding.className + "." + finding.methodName);
+        out.append("},\"locations\":[{");
+        appendPhysicalLocation(out, finding.filePath, finding.lineNumber, finding.snippet);
+        out.append(",\"logicalLocations\":[{\"kind\":\"function\",\"fullyQualifiedName\":");
+        appendString(out, finding.className + "." + finding.methodName);
+        out.append("}]}]");
+        if (!finding.callChain.isEmpty()) {
+            // 调用链按sarif的codeFlow输出，每一步是一个location
+            out.append(",\"codeFlows\":[{\"threadFlows\":[{\"locations\":[");
+            for (int i = 0; i < finding.callChain.size(); i++) {
+                Finding.ChainStep step = finding.callChain.get(i);
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append("{\"location\":{");
+                appendPhysicalLocation(out, step.filePath, step.line, step.code);
+                out.append(",\"message\":{\"text\":");
+                appendString(out, step.className + "." + step.methodName + " -> " + step.calleeClass + "." + step.calleeMethod);
+                out.append("}}}");
+            }
+            out.append("]}]}]");
+        }
+        if (finding.entryPath != null) {
+            // 能从HTTP入口走到的结果记下入口方法，方便按可达性过滤、排序
+            String entryPoint = finding.entryPath.isEmpty()
+                    ? finding.className + "." + finding.methodName
+                    : finding.entryPath.get(0).className + "." + finding.entryPath.get(0).methodName;
+            out.append(",\"properties\":{\"reachableFromEntryPoint\":true,\"entryPoint\":");
+            appendString(out, entryPoint);
+            out.append('}');
+        } else {
+            out.append(",\"properties\":{\"reachableFromEntryPoint\":false}");
+        }
+        out.append('}');
+    }
+
+    private static void appendPhysicalLocation(StringBuilder out, String filePath, int line, String snippet) {
+        out.append("\"physicalLocation\":{\"artifactLocation\":{\"uri\":");
+        appendString(out, new File(filePath).toURI().toString());
+        out.append('}');
+        // sarif要求行号从1开始，拿不到行号的就不写region
+        if (line > 0) {
+            out.append(",\"region\":{\"startLine\":").append(line);
+            if (snippet != null) {
+                out.append(",\"snippet\":{\"text\":");
+                appendString(out, snippet);
+                out.append('}');
+            }
+            out.append('}');
+        }
+        out.append('}');
+    }
+
+    static void appendString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
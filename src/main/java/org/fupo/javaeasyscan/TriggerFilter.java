@@ -0,0 +1,114 @@
+package org.fupo.javaeasyscan;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * @Describe 解析前的字节级预筛：把各规则的触发词（比如exec、ProcessBuilder、GroovyShell、parseObject、JdbcTemplate的方法名）编成一个多模式匹配自动机，
+ * 对文件内容扫一遍（和算哈希、解析用的是同一份读进来的内容，不单独读文件），一个触发词都没有的文件不可能命中任何规则，不用为了检测去解析它
+ * 只做子串匹配，宁可多放过几个文件去解析，也不能漏；触发词只能是ASCII，源码里用Unicode转义写的标识符不在考虑范围内
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 11:05 2024/6/27
+ **/
+public class TriggerFilter {
+    // goto表：next[state * 256 + byte]，失败跳转已经合并进去，扫描时每个字符只查一次表
+    private final int[] next;
+    private final boolean[] accept;
+
+    private TriggerFilter(Collection<String> tokens) {
+        List<int[]> gotoTable = new ArrayList<>();
+        List<Boolean> output = new ArrayList<>();
+        gotoTable.add(newRow());
+        output.add(false);
+        for (String token : tokens) {
+            int state = 0;
+            for (byte b : token.getBytes(StandardCharsets.UTF_8)) {
+                int c = b & 0xff;
+                if (gotoTable.get(state)[c] < 0) {
+                    gotoTable.get(state)[c] = gotoTable.size();
+                    gotoTable.add(newRow());
+                    output.add(false);
+                }
+                state = gotoTable.get(state)[c];
+            }
+            output.set(state, true);
+        }
+
+        // 按层（BFS）补全失败跳转
+        int states = gotoTable.size();
+        next = new int[states * 256];
+        accept = new boolean[states];
+        int[] fail = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < 256; c++) {
+            int child = gotoTable.get(0)[c];
+            if (child < 0) {
+                next[c] = 0;
+            } else {
+                next[c] = child;
+                fail[child] = 0;
+                queue.add(child);
+            }
+        }
+        accept[0] = output.get(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            accept[state] = output.get(state) || accept[fail[state]];
+            for (int c = 0; c < 256; c++) {
+                int child = gotoTable.get(state)[c];
+                if (child < 0) {
+                    next[state * 256 + c] = next[fail[state] * 256 + c];
+                } else {
+                    next[state * 256 + c] = child;
+                    fail[child] = next[fail[state] * 256 + c];
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[256];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /**
+     * 汇总各规则的触发词，有规则没有声明触发词（null）时返回null，表示每个文件都要解析
+     */
+    public static TriggerFilter forDetectors(List<Detector> detectors) {
+        Set<String> tokens = new TreeSet<>();
+        for (Detector detector : detectors) {
+            Set<String> triggers = detector.triggers();
+            if (triggers == null) {
+                return null;
+            }
+            tokens.addAll(triggers);
+        }
+        return tokens.isEmpty() ? null : new TriggerFilter(tokens);
+    }
+
+    /**
+     * 任意一组词，比如入口可达性往上找调用方时的方法名
+     */
+    static TriggerFilter forTokens(Collection<String> tokens) {
+        return new TriggerFilter(tokens);
+    }
+
+    /**
+     * 内容里是否出现任意一个触发词
+     */
+    public boolean matches(CharSequence content) {
+        int state = 0;
+        for (int i = 0, length = content.length(); i < length; i++) {
+            char c = content.charAt(i);
+            // 触发词都是ASCII，非ASCII字符一律当成一个不会出现在触发词里的字节
+            state = next[(state << 8) | (c < 0x80 ? c : 0x80)];
+            if (accept[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
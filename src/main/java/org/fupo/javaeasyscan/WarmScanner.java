@@ -0,0 +1,118 @@
+package org.fupo.javaeasyscan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * @Describe 常驻进程（--daemon、--watch）里的增量扫描：每个项目的索引和上一次扫描后的状态（每个文件的类信息、调用点、结果和调用链）留在内存里，
+ * 再次扫描同一个目录时修改时间和大小都没变的文件不读不解析，只重新解析改过的文件，调用链只重新跟进经过改动方法的那些
+ * 索引里缓存的语法树、文件内容和符号解析结果也跨扫描复用，只丢掉改过的文件的（见ProjectIndex.refresh）；MyBatis XML文件小、解析快，每次都重新扫
+ * 结果不写报告文件，按模块顺序收集起来交给调用方
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 9:40 2024/7/1
+ **/
+public class WarmScanner {
+    private static final Logger logger = LoggerFactory.getLogger(WarmScanner.class);
+    // 最多在内存里留几个项目，超过时丢掉最久没扫的
+    private static final int MAX_WORKSPACES = 8;
+
+    private final boolean lean;
+    // 项目根目录 -> 这个项目的索引和上一次扫描后的状态，按最近扫描的顺序排
+    private final Map<File, Workspace> workspaces;
+
+    private static class Workspace {
+        final ProjectIndex index;
+        ScanState state;
+
+        Workspace(ProjectIndex index) {
+            this.index = index;
+        }
+    }
+
+    // 一次扫描的结果
+    public static class Result {
+        final File rootDir;
+        // 是否是没有用上一次的状态的全量扫描
+        final boolean full;
+        final int javaFiles;
+        // 这次重新解析的java文件数
+        final int parsedFiles;
+        final long elapsedMs;
+        final List<Finding> findings;
+
+        Result(File rootDir, boolean full, int javaFiles, int parsedFiles, long elapsedMs, List<Finding> findings) {
+            this.rootDir = rootDir;
+            this.full = full;
+            this.javaFiles = javaFiles;
+            this.parsedFiles = parsedFiles;
+            this.elapsedMs = elapsedMs;
+            this.findings = findings;
+        }
+    }
+
+    public WarmScanner(boolean lean) {
+        this(lean, MAX_WORKSPACES);
+    }
+
+    WarmScanner(boolean lean, int maxWorkspaces) {
+        this.lean = lean;
+        this.workspaces = new LinkedHashMap<File, Workspace>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, Workspace> eldest) {
+                if (size() <= maxWorkspaces) {
+                    return false;
+                }
+                logger.info("evict workspace " + eldest.getKey().getPath());
+                eldest.getValue().index.release();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * 扫描rootDir，full为true时丢掉这个目录之前的状态重新全量扫描；同一时刻只跑一个扫描
+     */
+    public synchronized Result scan(File rootDir, boolean full) throws Exception {
+        long start = System.nanoTime();
+        // 计数器和阶段耗时只统计这一次扫描，常驻进程里不一直累加
+        ScanMetrics.reset();
+        Workspace workspace = full ? null : workspaces.get(rootDir);
+        // 第一次扫描、要求全量扫描或者上一次扫描失败了，都重新建索引
+        if (workspace == null || workspace.state == null) {
+            ProjectIndex index = ProjectIndex.build(rootDir);
+            index.setLean(lean);
+            workspace = new Workspace(index);
+            Workspace replaced = workspaces.put(rootDir, workspace);
+            if (replaced != null) {
+                replaced.index.release();
+            }
+        } else {
+            workspace.index.refresh(workspace.state);
+        }
+        ProjectIndex index = workspace.index;
+        ScanState previous = workspace.state;
+        List<Finding> findings = new ArrayList<>();
+        ResultUtil.collectTo(findings);
+        ScanEngine.ScanResult scanResult;
+        try {
+            scanResult = Main.runModules(index, () -> ScanEngine.rescan(index, Main.JAVA_DETECTORS, previous));
+        } finally {
+            ResultUtil.collectTo(null);
+        }
+        ScanState state = scanResult.getState();
+        workspace.state = state;
+        int parsedFiles = 0;
+        for (ScanState.FileSummary summary : state.getFiles().values()) {
+            if (!summary.reused && !summary.skipped) {
+                parsedFiles++;
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        logger.info("scanned " + rootDir.getPath() + " in " + elapsed + "ms, " + parsedFiles + " of " + index.getJavaFiles().size() + " java files parsed, " + findings.size() + " findings");
+        return new Result(rootDir, previous == null, index.getJavaFiles().size(), parsedFiles, elapsed, findings);
+    }
+}
@@ -0,0 +1,139 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe --since的改动范围：从和目标分支的分叉点算起，包括未提交的改动和没被忽略的新文件，不包括目标分支上后来的提交和删掉的文件
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:15 2024/7/4
+ **/
+public class GitDiffTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File repo;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = folder.newFolder("repo");
+        git("init", "-q");
+        git("checkout", "-q", "-b", "main");
+        git("config", "user.name", "test");
+        git("config", "user.email", "test@example.com");
+        git("config", "commit.gpgsign", "false");
+        write("A.java", "class A {}");
+        write("B.java", "class B {}");
+        write("Removed.java", "class Removed {}");
+        write("module/M.java", "class M {}");
+        write(".gitignore", "*.log\n");
+        git("add", "-A");
+        git("commit", "-q", "-m", "base");
+    }
+
+    @Test
+    public void changesSinceTheMergeBaseIncludingTheWorkingTree() throws Exception {
+        git("checkout", "-q", "-b", "feature");
+        write("A.java", "class A { void run() {} }");
+        git("rm", "-q", "Removed.java");
+        git("commit", "-q", "-am", "feature work");
+        // 分叉之后目标分支上别人的提交
+        git("checkout", "-q", "main");
+        write("module/M.java", "class M { int later; }");
+        write("Later.java", "class Later {}");
+        git("add", "-A");
+        git("commit", "-q", "-m", "later on main");
+        git("checkout", "-q", "feature");
+        // 工作区里没提交的修改、暂存的新文件、没跟踪的新文件、被忽略的文件
+        write("B.java", "class B { int x; }");
+        write("Staged.java", "class Staged {}");
+        git("add", "Staged.java");
+        write("Untracked.java", "class Untracked {}");
+        write("build.log", "ignored");
+
+        Set<String> expected = new HashSet<>(Arrays.asList(path("A.java"), path("B.java"), path("Staged.java"), path("Untracked.java")));
+        assertEquals(expected, GitDiff.changedFiles(repo, "main"));
+    }
+
+    @Test
+    public void onlyFilesUnderTheScannedDirectory() throws Exception {
+        write("A.java", "class A { int x; }");
+        write("module/M.java", "class M { int x; }");
+        write("module/New.java", "class New {}");
+        write("Other.java", "class Other {}");
+        File module = new File(repo, "module");
+        Set<String> expected = new HashSet<>(Arrays.asList(new File(module, "M.java").getAbsolutePath(), new File(module, "New.java").getAbsolutePath()));
+        assertEquals(expected, GitDiff.changedFiles(module, "HEAD"));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownRevisionFails() throws Exception {
+        GitDiff.changedFiles(repo, "no-such-branch");
+    }
+
+    @Test
+    public void revisionsThatAreOptionsOrNotCommitsFail() throws Exception {
+        File output = new File(folder.getRoot(), "diff-output");
+        for (String rev : Arrays.asList("--output=" + output.getAbsolutePath(), "HEAD^{tree}")) {
+            try {
+                GitDiff.changedFiles(repo, rev);
+                fail(rev);
+            } catch (IOException expected) {
+                // rev不能被git当成选项，也不能是提交以外的对象
+            }
+        }
+        assertFalse(output.exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void directoryOutsideAGitRepositoryFails() throws Exception {
+        File plain = folder.newFolder("plain");
+        // 临时目录本身在某个git仓库里时测不了
+        Process process = new ProcessBuilder("git", "rev-parse", "--git-dir").directory(plain).redirectErrorStream(true).start();
+        readAll(process);
+        Assume.assumeTrue(process.waitFor() != 0);
+        GitDiff.changedFiles(plain, "HEAD");
+    }
+
+    private String path(String name) {
+        return new File(repo, name).getAbsolutePath();
+    }
+
+    private void write(String name, String content) throws IOException {
+        File file = new File(repo, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void git(String... args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(repo).redirectErrorStream(true).start();
+        byte[] output = readAll(process);
+        assertEquals(String.join(" ", args) + ": " + new String(output, StandardCharsets.UTF_8), 0, process.waitFor());
+    }
+
+    private static byte[] readAll(Process process) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = process.getInputStream().read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,31 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe 命令行参数的组合检查
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 15:05 2024/7/4
+ **/
+public class MainTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void maxHeapTargetRequiresLean() throws Exception {
+        String root = folder.newFolder("project").getPath();
+        try {
+            Main.main(new String[]{root, "--max-heap-target", "1g"});
+            fail("expected --max-heap-target without --lean to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("--lean"));
+        }
+        // 拒绝时不能留下背压设置
+        assertEquals(0, HeapBudget.getMaxHeapTarget());
+    }
+}
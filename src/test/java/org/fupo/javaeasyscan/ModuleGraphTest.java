@@ -0,0 +1,127 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe 多模块项目的模块划分：从Maven/Gradle构建文件找模块和模块间依赖，文件归到哪个模块、模块之间的依赖可见性
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 14:20 2024/7/3
+ **/
+public class ModuleGraphTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void discoversNestedMavenModulesAndTransitiveDependencies() throws Exception {
+        File root = folder.newFolder("project");
+        write(root, "pom.xml", "<project><artifactId>parent</artifactId>"
+                + "<dependencyManagement><dependencies><dependency><artifactId>web</artifactId></dependency></dependencies></dependencyManagement>"
+                + "<modules><module>core</module><module>services</module><module>app/pom.xml</module></modules></project>");
+        write(root, "core/pom.xml", "<project><parent><artifactId>parent</artifactId></parent><artifactId>core</artifactId></project>");
+        // 聚合模块，自己下面还有子模块
+        write(root, "services/pom.xml", "<project><artifactId>services</artifactId><modules><module>user</module><module>../missing</module></modules></project>");
+        write(root, "services/user/pom.xml", "<project><artifactId>user-service</artifactId>"
+                + "<dependencies><dependency><artifactId>core</artifactId></dependency><dependency><artifactId>spring-web</artifactId></dependency></dependencies></project>");
+        write(root, "app/pom.xml", "<project><artifactId>app</artifactId><dependencies><dependency><artifactId>user-service</artifactId></dependency></dependencies></project>");
+
+        ModuleGraph modules = ModuleGraph.discover(root);
+        assertTrue(modules.isMultiModule());
+        List<String> names = new ArrayList<>();
+        for (ModuleGraph.Module module : modules.getModules()) {
+            names.add(module.getName());
+        }
+        names.sort(null);
+        assertEquals(Arrays.asList("app", "core", "parent", "services", "user-service"), names);
+
+        String core = file(root, "core");
+        String user = file(root, "services/user");
+        String app = file(root, "app");
+        assertEquals("user-service", modules.moduleOf(user).getName());
+        // 聚合模块下、子模块外的文件归聚合模块
+        assertEquals("services", modules.moduleOf(file(root, "services")).getName());
+        assertEquals("parent", modules.moduleOf(file(root, "")).getName());
+        assertTrue(modules.canSee(user, core));
+        // app -> user-service -> core，传递依赖也能看到
+        assertTrue(modules.canSee(app, core));
+        assertFalse(modules.canSee(core, user));
+        assertFalse(modules.canSee(core, app));
+        // 根模块的dependencyManagement只是版本声明，根模块和所有模块互相可见
+        assertTrue(modules.canSee(file(root, ""), app));
+        assertTrue(modules.canSee(core, file(root, "")));
+    }
+
+    @Test
+    public void discoversGradleProjectsAndProjectDependencies() throws Exception {
+        File root = folder.newFolder("project");
+        write(root, "settings.gradle.kts", "rootProject.name = \"demo\"\ninclude(\"core\",\n    \":services:user\")\ninclude 'web'\ninclude 'absent'\n");
+        write(root, "core/build.gradle.kts", "dependencies { implementation(\"org.slf4j:slf4j-api:1.7.36\") }\n");
+        write(root, "services/user/build.gradle.kts", "dependencies {\n    implementation(project(\":core\"))\n}\n");
+        write(root, "web/build.gradle", "dependencies {\n    implementation project(path: ':services:user')\n}\n");
+
+        ModuleGraph modules = ModuleGraph.discover(root);
+        // 根项目加上core、:services:user、web，目录不存在的absent不算
+        assertEquals(4, modules.getModules().size());
+        String core = file(root, "core");
+        String user = file(root, "services/user");
+        String web = file(root, "web");
+        assertEquals(":core", modules.moduleOf(core).getName());
+        assertEquals(":services:user", modules.moduleOf(user).getName());
+        assertEquals(":web", modules.moduleOf(web).getName());
+        assertEquals(":", modules.moduleOf(file(root, "buildSrc")).getName());
+        assertTrue(modules.canSee(web, core));
+        assertTrue(modules.canSee(user, core));
+        assertFalse(modules.canSee(core, user));
+        assertFalse(modules.canSee(user, web));
+    }
+
+    @Test
+    public void directoryWithoutBuildFilesIsOneModule() throws Exception {
+        File root = folder.newFolder("project");
+        write(root, "a/src/A.java", "class A {}");
+        ModuleGraph modules = ModuleGraph.discover(root);
+        assertFalse(modules.isMultiModule());
+        assertTrue(modules.canSee(file(root, "a"), file(root, "b")));
+    }
+
+    @Test
+    public void rootWithDotDotStillMapsFilesToTheirModules() throws Exception {
+        File project = folder.newFolder("project");
+        write(project, "pom.xml", "<project><artifactId>parent</artifactId><modules><module>api</module><module>web</module></modules></project>");
+        write(project, "api/pom.xml", "<project><artifactId>api</artifactId></project>");
+        write(project, "web/pom.xml", "<project><artifactId>web</artifactId><dependencies><dependency><artifactId>api</artifactId></dependency></dependencies></project>");
+        new File(project, "web/src").mkdirs();
+
+        // 命令行给的根目录是project/web/..
+        File root = new File(new File(project, "web"), "..");
+        ModuleGraph modules = ModuleGraph.discover(root);
+        String apiFile = new File(root, "api/src/main/java/demo/Api.java").getPath();
+        String webFile = new File(root, "web/src/main/java/demo/Web.java").getPath();
+        assertEquals("api", modules.moduleOf(apiFile).getName());
+        assertEquals("web", modules.moduleOf(webFile).getName());
+        assertTrue(modules.canSee(webFile, apiFile));
+        assertFalse(modules.canSee(apiFile, webFile));
+    }
+
+    private static String file(File root, String dir) {
+        return new File(new File(root, dir), "src/main/java/demo/Demo.java").getAbsolutePath();
+    }
+
+    private static void write(File root, String path, String content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
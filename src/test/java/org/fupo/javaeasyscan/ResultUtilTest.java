@@ -0,0 +1,121 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe html报告的去重：报告旁边的.idx索引记下已经写过的结果，再次扫描只追加新结果，报告被删后重新写
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 11:40 2024/7/4
+ **/
+public class ResultUtilTest {
+    private static final String TOPIC = "命令执行";
+
+    private File report;
+    private File index;
+
+    @Before
+    public void setUp() {
+        // 报告写在当前目录（测试时是target），文件名和ResultUtil里一样按日期
+        report = new File("audit_report_" + new SimpleDateFormat("yyyyMMdd").format(new Date()) + ".html");
+        index = new File(report.getPath() + ".idx");
+        report.delete();
+        index.delete();
+        ResultUtil.setFormat("html");
+    }
+
+    @After
+    public void tearDown() {
+        ResultUtil.finish();
+        report.delete();
+        index.delete();
+    }
+
+    @Test
+    public void appendsOnlyFindingsNotInTheIndex() throws Exception {
+        ReportSink sink = ResultUtil.openSink(TOPIC);
+        sink.add(finding("Cmd", 3));
+        sink.add(finding("Cmd", 3));
+        sink.add(finding("Shell", 7));
+        sink.close();
+        ResultUtil.finish();
+        // 同一次运行里重复的结果也只写一次，size()仍然算所有结果
+        assertEquals(3, sink.size());
+        assertEquals(2, lines(index).size());
+        assertEquals(1, occurrences(read(report), "Cmd.java:3"));
+        assertEquals(1, occurrences(read(report), "<html>"));
+
+        // 下一次运行：内存里的索引已经清掉，只能从.idx读
+        ReportSink next = ResultUtil.openSink(TOPIC);
+        next.add(finding("Shell", 7));
+        next.add(finding("Cmd", 3));
+        next.add(finding("Runtime", 12));
+        next.close();
+        ResultUtil.finish();
+        assertEquals(3, next.size());
+        assertEquals(3, lines(index).size());
+        String html = read(report);
+        assertEquals(1, occurrences(html, "Cmd.java:3"));
+        assertEquals(1, occurrences(html, "Shell.java:7"));
+        assertEquals(1, occurrences(html, "Runtime.java:12"));
+        // 新结果按这一批实际写进去的编号：第一批1、2，第二批只有1
+        assertEquals(2, occurrences(html, " 1 <span"));
+        assertEquals(1, occurrences(html, " 2 <span"));
+        assertEquals(0, occurrences(html, " 3 <span"));
+
+        // 同样的内容换一个话题不算重复
+        ReportSink other = ResultUtil.openSink("反序列化");
+        other.add(finding("Cmd", 3));
+        other.close();
+        assertEquals(4, lines(index).size());
+    }
+
+    @Test
+    public void rewritesEverythingAfterTheReportIsDeleted() throws Exception {
+        ReportSink sink = ResultUtil.openSink(TOPIC);
+        sink.add(finding("Cmd", 3));
+        sink.close();
+        ResultUtil.finish();
+        assertTrue(report.delete());
+        assertTrue(index.exists());
+
+        ReportSink again = ResultUtil.openSink(TOPIC);
+        again.add(finding("Cmd", 3));
+        again.close();
+        assertEquals(1, occurrences(read(report), "Cmd.java:3"));
+        assertEquals(1, occurrences(read(report), "<html>"));
+        assertEquals(1, lines(index).size());
+    }
+
+    private static Finding finding(String className, int line) {
+        return new Finding(TOPIC, className + ".java", line, className, "run", "exec(cmd)", className + ".java:" + line + " 存在命令执行", false);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static int occurrences(String text, String part) {
+        int count = 0;
+        for (int pos = text.indexOf(part); pos >= 0; pos = text.indexOf(part, pos + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,85 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe MyBatis注入模块在--since下的过滤：XML没改过时，实现类或控制层改动后新调用到已有的${}方法也要报出来
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 17:05 2024/7/2
+ **/
+public class SQLInjectScanTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private File mapperXml;
+    private File serviceImpl;
+    private File unrelated;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.newFolder("project");
+        write("src/main/java/demo/mapper/UserMapper.java", "package demo.mapper;\n\npublic interface UserMapper {\n    Object find(String name);\n}\n");
+        mapperXml = write("src/main/resources/mapper/UserMapper.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<mapper namespace=\"demo.mapper.UserMapper\">\n"
+                + "    <select id=\"find\">select * from users where name = ${name}</select>\n</mapper>\n");
+        write("src/main/java/demo/service/UserService.java", "package demo.service;\n\npublic interface UserService {\n    Object find(String name);\n}\n");
+        serviceImpl = write("src/main/java/demo/service/UserServiceImpl.java", "package demo.service;\n\nimport demo.mapper.UserMapper;\n\n"
+                + "public class UserServiceImpl implements UserService {\n    private UserMapper userMapper;\n\n    public Object find(String name) {\n        return userMapper.find(name);\n    }\n}\n");
+        write("src/main/java/demo/web/UserController.java", "package demo.web;\n\nimport demo.service.UserService;\n\n@RestController\npublic class UserController {\n"
+                + "    private UserService userService;\n\n    @GetMapping(\"/user\")\n    public Object get(String name) {\n        return userService.find(name);\n    }\n}\n");
+        unrelated = write("src/main/java/demo/util/Strings.java", "package demo.util;\n\npublic class Strings {\n    public static String trim(String value) {\n        return value.trim();\n    }\n}\n");
+    }
+
+    @Test
+    public void reportsUnchangedMapperCalledFromChangedService() throws Exception {
+        List<Finding> findings = scan(Collections.singleton(serviceImpl.getAbsolutePath()));
+        assertEquals(1, findings.size());
+        Finding finding = findings.get(0);
+        assertEquals(mapperXml.getAbsolutePath(), finding.filePath);
+        assertEquals(Finding.ChainStep.Kind.IMPL, finding.callChain.get(0).kind);
+        assertEquals(serviceImpl.getAbsolutePath(), finding.callChain.get(0).filePath);
+    }
+
+    @Test
+    public void reportsChangedMapperXml() throws Exception {
+        assertEquals(1, scan(Collections.singleton(mapperXml.getAbsolutePath())).size());
+    }
+
+    @Test
+    public void dropsMapperFindingsUntouchedByTheChange() throws Exception {
+        assertTrue(scan(Collections.singleton(unrelated.getAbsolutePath())).isEmpty());
+        assertEquals(1, scan(null).size());
+    }
+
+    private List<Finding> scan(Set<String> changedFiles) throws Exception {
+        ProjectIndex index = ProjectIndex.build(root);
+        index.setChangedFiles(changedFiles);
+        List<Finding> findings = new ArrayList<>();
+        ResultUtil.collectTo(findings);
+        try {
+            SQLInjectScan.main(index);
+        } finally {
+            ResultUtil.collectTo(null);
+        }
+        return findings;
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
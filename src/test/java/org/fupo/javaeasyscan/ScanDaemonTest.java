@@ -0,0 +1,81 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe 常驻进程只接受本机Host头、除/status外只接受带令牌的POST
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 16:10 2024/7/4
+ **/
+public class ScanDaemonTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rejectsForeignHostsGetsAndMissingTokens() throws Exception {
+        File root = folder.newFolder("project");
+        ScanDaemon daemon = new ScanDaemon(null, false, folder.newFolder("tokens"));
+        daemon.start(0);
+        int port = daemon.getPort();
+        File tokenFile = daemon.getTokenFile();
+        assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE), Files.getPosixFilePermissions(tokenFile.toPath()));
+        String token = new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8);
+        String scan = "/scan?path=" + root.getAbsolutePath();
+
+        assertTrue(request(port, "GET", "/status", "127.0.0.1:" + port, null).startsWith("HTTP/1.1 200"));
+        // DNS重绑定过来的请求Host头是攻击者的域名
+        assertTrue(request(port, "GET", "/status", "evil.example:" + port, null).startsWith("HTTP/1.1 403"));
+        assertTrue(request(port, "POST", scan, "evil.example:" + port, token).startsWith("HTTP/1.1 403"));
+        assertTrue(request(port, "GET", scan, "localhost:" + port, token).startsWith("HTTP/1.1 405"));
+        assertTrue(request(port, "POST", scan, "localhost:" + port, null).startsWith("HTTP/1.1 401"));
+        assertTrue(request(port, "POST", scan, "localhost:" + port, token + "0").startsWith("HTTP/1.1 401"));
+        assertTrue(request(port, "GET", "/shutdown", "localhost:" + port, token).startsWith("HTTP/1.1 405"));
+
+        String response = request(port, "POST", scan, "localhost:" + port, token);
+        assertTrue(response, response.startsWith("HTTP/1.1 200"));
+        assertTrue(response.contains("\"findings\":["));
+
+        assertTrue(request(port, "POST", "/shutdown", "127.0.0.1:" + port, token).startsWith("HTTP/1.1 200"));
+        daemon.awaitStop();
+        assertFalse(tokenFile.exists());
+    }
+
+    // 手写请求，Host头可以随便填
+    private static String request(int port, String method, String path, String host, String token) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            StringBuilder request = new StringBuilder(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+            request.append("Host: ").append(host).append("\r\n");
+            if (token != null) {
+                request.append(ScanDaemon.TOKEN_HEADER).append(": ").append(token).append("\r\n");
+            }
+            request.append("Content-Length: 0\r\nConnection: close\r\n\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                response.write(buffer, 0, n);
+            }
+            return new String(response.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
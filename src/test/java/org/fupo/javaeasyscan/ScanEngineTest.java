@@ -0,0 +1,146 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe 扫描引擎的增量扫描：改动、新增、删除文件后哪些调用链重新跟进，预筛跳过的文件在状态里的记录，以及之后为调用链索引补解析时是否还算没改过
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 15:10 2024/7/2
+ **/
+public class ScanEngineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void retracesOnlyChainsThroughChangedFiles() throws Exception {
+        File root = folder.newFolder("project");
+        File cmd = write(root, "Cmd.java", "public class Cmd {\n    public void run(String input) throws Exception {\n        Runtime.getRuntime().exec(input);\n    }\n}\n");
+        write(root, "Caller.java", "public class Caller {\n    private Cmd cmd;\n\n    public void call(String input) throws Exception {\n        cmd.run(input);\n    }\n}\n");
+        File unrelated = write(root, "Unrelated.java", "public class Unrelated {\n    public String run(String input) {\n        return input.trim();\n    }\n}\n");
+        ScanState first = rescan(root, null).getState();
+        Finding finding = first.get(cmd.getAbsolutePath()).findings.get(0);
+        List<Finding.ChainStep> firstChain = finding.callChain;
+        assertEquals(1, firstChain.size());
+        assertEquals("public class Cmd {\n    public void run(String input) throws Exception {\n        Runtime.getRuntime().exec(input);\n    }\n}\n", finding.getContext());
+
+        // 改一个调用点里没有链上方法名的文件，缓存里的调用链不动
+        write(root, "Unrelated.java", "public class Unrelated {\n    public String run(String input) {\n        return input.toLowerCase();\n    }\n}\n");
+        ScanState second = rescan(root, first).getState();
+        assertTrue(second.get(cmd.getAbsolutePath()).reused);
+        assertFalse(second.get(unrelated.getAbsolutePath()).reused);
+        assertSame(firstChain, second.get(cmd.getAbsolutePath()).findings.get(0).callChain);
+
+        // 新增一个调用run的文件，结果所在文件没改，调用链也要重新跟进
+        File newCaller = write(root, "NewCaller.java", "public class NewCaller {\n    private Cmd cmd;\n\n    public void handle(String input) throws Exception {\n        cmd.run(input);\n    }\n}\n");
+        ScanState third = rescan(root, second).getState();
+        List<Finding.ChainStep> thirdChain = third.get(cmd.getAbsolutePath()).findings.get(0).callChain;
+        assertEquals(2, thirdChain.size());
+
+        // 删掉它，调用链回到原来的样子
+        assertTrue(newCaller.delete());
+        ScanState fourth = rescan(root, third).getState();
+        assertNull(fourth.get(newCaller.getAbsolutePath()));
+        List<Finding.ChainStep> fourthChain = fourth.get(cmd.getAbsolutePath()).findings.get(0).callChain;
+        assertEquals(1, fourthChain.size());
+        assertEquals("Caller", fourthChain.get(0).className);
+    }
+
+    @Test
+    public void unchangedSkippedFileStaysReusedWhenCallGraphIsBuiltLater() throws Exception {
+        File root = folder.newFolder("project");
+        File helper = write(root, "Helper.java", "public class Helper {\n    public String name(String input) {\n        return input.trim();\n    }\n}\n");
+
+        // 第一次扫描没有要跟进的结果，调用链索引一直没建，Helper只预筛过
+        ScanState first = rescan(root, null).getState();
+        ScanState.FileSummary skipped = first.get(helper.getAbsolutePath());
+        assertNotNull(skipped);
+        assertTrue(skipped.skipped);
+        assertNotNull(skipped.hash);
+
+        // 新加一个命令执行，要往上跟进调用链，Helper这时才解析
+        File cmd = write(root, "Cmd.java", "public class Cmd {\n    public void run(String input) throws Exception {\n        Runtime.getRuntime().exec(input);\n    }\n}\n");
+        ScanEngine.ScanResult second = rescan(root, first);
+        assertEquals(1, second.getState().get(cmd.getAbsolutePath()).findings.size());
+        ScanState.FileSummary parsed = second.getState().get(helper.getAbsolutePath());
+        assertFalse(parsed.skipped);
+        assertEquals(1, parsed.classes.size());
+        // 内容没变，不能算成新增文件让缓存里的调用链全部重新跟进
+        assertTrue(parsed.reused);
+    }
+
+    @Test
+    public void entryPathOfUntracedFindingParsesOnlyItsCallers() throws Exception {
+        File root = folder.newFolder("project");
+        // 拼接SQL不往上跟进调用链，调用链索引不会建
+        File dao = write(root, "UserDao.java", "public class UserDao {\n    private JdbcTemplate jdbcTemplate;\n\n    public void find(String name) {\n"
+                + "        String sql = \"select * from t where name = '\" + name + \"'\";\n        jdbcTemplate.execute(sql);\n    }\n}\n");
+        write(root, "UserService.java", "public class UserService {\n    private UserDao userDao;\n\n    public void lookup(String name) {\n        userDao.find(name);\n    }\n}\n");
+        write(root, "UserController.java", "@RestController\npublic class UserController {\n    private UserService userService;\n\n    public void get(String name) {\n        userService.lookup(name);\n    }\n}\n");
+        File unrelated = write(root, "Unrelated.java", "public class Unrelated {\n    public int other() {\n        return 1;\n    }\n}\n");
+
+        ScanEngine.ScanResult result = rescan(root, null);
+        List<Finding> findings = result.getState().get(dao.getAbsolutePath()).findings;
+        assertEquals(1, findings.size());
+        List<Finding.ChainStep> entryPath = findings.get(0).getEntryPath();
+        assertNotNull(entryPath);
+        assertEquals(2, entryPath.size());
+        assertEquals("UserController.get", entryPath.get(0).className + "." + entryPath.get(0).methodName);
+        assertEquals("UserDao.find", entryPath.get(1).calleeClass + "." + entryPath.get(1).calleeMethod);
+        // 不调用这些方法的文件仍然没解析
+        assertTrue(result.getState().get(unrelated.getAbsolutePath()).skipped);
+    }
+
+    @Test
+    public void resolvedFindingsFollowChangedDeclarationsInOtherFiles() throws Exception {
+        File root = folder.newFolder("project");
+        write(root, "Launcher.java", "public class Launcher {\n    public ProcessBuilder builder(String command) {\n        return new ProcessBuilder(command);\n    }\n}\n");
+        File cmd = write(root, "Cmd.java", "public class Cmd {\n    private Launcher launcher;\n\n    public void run(String input) throws Exception {\n        launcher.builder(input).start();\n    }\n}\n");
+        ScanState first = rescan(root, null).getState();
+        assertEquals(1, first.get(cmd.getAbsolutePath()).findings.size());
+        assertTrue(first.get(cmd.getAbsolutePath()).resolved);
+
+        // 只改Launcher：Cmd内容没变，但start()已经不是ProcessBuilder.start，缓存里的结果不能复用
+        write(root, "Launcher.java", "public class Launcher {\n    public Thread builder(String command) {\n        return new Thread(command);\n    }\n}\n");
+        ScanEngine.ScanResult second = rescan(root, first);
+        assertFalse(second.getState().get(cmd.getAbsolutePath()).reused);
+        assertTrue(second.getState().get(cmd.getAbsolutePath()).findings.isEmpty());
+
+        // 什么都没改时照常复用
+        ScanState third = rescan(root, second.getState()).getState();
+        assertTrue(third.get(cmd.getAbsolutePath()).reused);
+    }
+
+    @Test
+    public void nestedCallsAreDispatchedOuterFirst() throws Exception {
+        File root = folder.newFolder("project");
+        File nested = write(root, "Nested.java", "public class Nested {\n    public void run(String input) throws Exception {\n        Runtime.getRuntime().exec(\n                String.valueOf(Runtime.getRuntime().exec(input)));\n    }\n}\n");
+        List<Finding> findings = rescan(root, null).getState().get(nested.getAbsolutePath()).findings;
+        assertEquals(2, findings.size());
+        // 先序遍历：外层的exec（第5行）先于参数里的exec（第6行）
+        assertEquals(5, findings.get(0).getLineNumber());
+        assertEquals(6, findings.get(1).getLineNumber());
+    }
+
+    private static ScanEngine.ScanResult rescan(File root, ScanState previous) {
+        ProjectIndex index = ProjectIndex.build(root);
+        return ScanEngine.rescan(index, Main.JAVA_DETECTORS, previous);
+    }
+
+    private static File write(File root, String name, String content) throws IOException {
+        File file = new File(root, "src/main/java/demo/" + name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), ("package demo;\n\n" + content).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,209 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe 增量扫描状态：二进制缓存写出再读回来内容不变，规则变了缓存作废，缓存文件在另一个根目录下读取，以及复用上次的摘要时不能改上次的状态
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 16:40 2024/7/3
+ **/
+public class ScanStateTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsEverySummaryField() throws Exception {
+        File root = folder.newFolder("project");
+        String cmdPath = new File(root, "src/main/java/demo/Cmd.java").getAbsolutePath();
+        String callerPath = new File(root, "src/main/java/demo/Caller.java").getAbsolutePath();
+        // 超过writeUTF的64K上限，两条结果共用，字符串表里只存一份
+        char[] longChars = new char[70_000];
+        Arrays.fill(longChars, '命');
+        String longSnippet = new String(longChars);
+
+        ScanState state = new ScanState("fp", root);
+        CallGraph.ClassInfo cmdClass = new CallGraph.ClassInfo(cmdPath, "Cmd", false, Collections.singletonList("demo.Api"),
+                Arrays.asList("Service", "Deprecated"), Arrays.asList("run", "exec"), Collections.emptyList());
+        CallGraph.ClassInfo innerClass = new CallGraph.ClassInfo(cmdPath, "Inner", true, Collections.emptyList(), null, Collections.singletonList("go"), null);
+        // 行号跨过1、2、3字节的变长编码边界，-1表示没有行号
+        List<CallGraph.CallSite> callSites = Arrays.asList(
+                new CallGraph.CallSite(cmdPath, -1, cmdClass, "run", "run", "exec", "Runtime.getRuntime()"),
+                new CallGraph.CallSite(cmdPath, 127, innerClass, "go", "go", "run", null),
+                new CallGraph.CallSite(cmdPath, 200_000, cmdClass, "exec", "exec", "start", "builder"));
+        Finding finding = new Finding("命令执行", cmdPath, 16_383, "Cmd", "run", longSnippet, "Runtime.exec参数可控", true);
+        finding.detectorClass = Main.class;
+        finding.context = "    public void run(String input) {\n        Runtime.getRuntime().exec(input);\n    }\n";
+        finding.callChain.add(new Finding.ChainStep(Finding.ChainStep.Kind.CALL, callerPath, 5, "Caller", "call", "Cmd", "run", "cmd.run(input);", null));
+        finding.callChainMethods = new HashSet<>(Arrays.asList("run", "call"));
+        Finding untraced = new Finding("命令执行", cmdPath, 0, "Cmd", "exec", longSnippet, null, false);
+        ScanState.FileSummary cmd = new ScanState.FileSummary(ScanState.hash("class Cmd {}"), Arrays.asList(cmdClass, innerClass), callSites, Arrays.asList(finding, untraced));
+        ScanState.FileSummary skipped = new ScanState.FileSummary(ScanState.hash("class Caller {}"), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        skipped.skipped = true;
+        cmd.resolved = true;
+        state.put(cmdPath, cmd);
+        state.put(callerPath, skipped);
+
+        File cacheFile = new File(root, ".javaeasyscan/" + ScanState.CACHE_FILE);
+        state.save(cacheFile);
+        assertTrue(cacheFile.length() < 2 * longSnippet.getBytes(StandardCharsets.UTF_8).length);
+
+        ScanState loaded = ScanState.load(cacheFile, "fp", root);
+        assertEquals(Arrays.asList(cmdPath, callerPath), new ArrayList<>(loaded.getFiles().keySet()));
+        ScanState.FileSummary loadedSkipped = loaded.get(callerPath);
+        assertTrue(loadedSkipped.skipped);
+        assertFalse(loadedSkipped.resolved);
+        assertEquals(skipped.hash, loadedSkipped.hash);
+        assertTrue(loadedSkipped.classes.isEmpty() && loadedSkipped.callSites.isEmpty() && loadedSkipped.findings.isEmpty());
+
+        ScanState.FileSummary loadedCmd = loaded.get(cmdPath);
+        assertFalse(loadedCmd.skipped);
+        assertFalse(loadedCmd.reused);
+        assertTrue(loadedCmd.resolved);
+        assertEquals(cmd.hash, loadedCmd.hash);
+        assertEquals(2, loadedCmd.classes.size());
+        CallGraph.ClassInfo loadedClass = loadedCmd.classes.get(0);
+        assertEquals(cmdPath, loadedClass.filePath);
+        assertEquals("Cmd", loadedClass.name);
+        assertFalse(loadedClass.isInterface);
+        assertEquals(cmdClass.implementedTypes, loadedClass.implementedTypes);
+        assertEquals(cmdClass.annotations, loadedClass.annotations);
+        assertEquals(cmdClass.methods, loadedClass.methods);
+        assertEquals(cmdClass.mappingMethods, loadedClass.mappingMethods);
+        CallGraph.ClassInfo loadedInner = loadedCmd.classes.get(1);
+        assertTrue(loadedInner.isInterface);
+        assertNull(loadedInner.annotations);
+        assertNull(loadedInner.mappingMethods);
+
+        assertEquals(3, loadedCmd.callSites.size());
+        for (int i = 0; i < callSites.size(); i++) {
+            CallGraph.CallSite expected = callSites.get(i);
+            CallGraph.CallSite actual = loadedCmd.callSites.get(i);
+            assertEquals(cmdPath, actual.filePath);
+            assertEquals(expected.line, actual.line);
+            assertSame(loadedCmd.classes.get(expected.callerClass == cmdClass ? 0 : 1), actual.callerClass);
+            assertEquals(expected.callerMethod, actual.callerMethod);
+            assertEquals(expected.ownerMethod, actual.ownerMethod);
+            assertEquals(expected.methodName, actual.methodName);
+            assertEquals(expected.scope, actual.scope);
+        }
+
+        assertEquals(2, loadedCmd.findings.size());
+        Finding loadedFinding = loadedCmd.findings.get(0);
+        assertEquals(finding.topic, loadedFinding.topic);
+        assertEquals(cmdPath, loadedFinding.filePath);
+        assertEquals(16_383, loadedFinding.lineNumber);
+        assertEquals("Cmd", loadedFinding.className);
+        assertEquals("run", loadedFinding.methodName);
+        assertEquals(longSnippet, loadedFinding.snippet);
+        assertEquals(finding.message, loadedFinding.message);
+        assertEquals(finding.context, loadedFinding.context);
+        assertTrue(loadedFinding.traceCallers);
+        assertEquals(Main.class, loadedFinding.detectorClass);
+        assertEquals(finding.callChainMethods, loadedFinding.callChainMethods);
+        assertEquals(1, loadedFinding.callChain.size());
+        Finding.ChainStep step = loadedFinding.callChain.get(0);
+        assertEquals(Finding.ChainStep.Kind.CALL, step.kind);
+        assertEquals(callerPath, step.filePath);
+        assertEquals(5, step.line);
+        assertEquals("Caller", step.className);
+        assertEquals("call", step.methodName);
+        assertEquals("Cmd", step.calleeClass);
+        assertEquals("run", step.calleeMethod);
+        assertEquals("cmd.run(input);", step.code);
+        assertNull(step.detail);
+        Finding loadedUntraced = loadedCmd.findings.get(1);
+        assertNull(loadedUntraced.message);
+        assertNull(loadedUntraced.detectorClass);
+        assertNull(loadedUntraced.callChainMethods);
+        assertFalse(loadedUntraced.traceCallers);
+    }
+
+    @Test
+    public void cacheIsDroppedWhenTheFingerprintChanges() throws Exception {
+        File root = folder.newFolder("project");
+        String fingerprint = ScanState.fingerprint(Arrays.asList(CommandInjectScan.class, ScanEngine.class));
+        assertEquals(fingerprint, ScanState.fingerprint(Arrays.asList(CommandInjectScan.class, ScanEngine.class)));
+        // 少了一个规则或者扫描器的字节码变了，指纹都不一样
+        assertNotEquals(fingerprint, ScanState.fingerprint(Collections.singletonList(CommandInjectScan.class)));
+        assertNotEquals(fingerprint, ScanState.fingerprint(Arrays.asList(CommandInjectScan.class, ScanState.class)));
+
+        ScanState state = new ScanState(fingerprint, root);
+        String filePath = new File(root, "src/main/java/demo/Cmd.java").getAbsolutePath();
+        state.put(filePath, new ScanState.FileSummary(ScanState.hash("class Cmd {}"), Collections.emptyList(), Collections.emptyList(), Collections.emptyList()));
+        File cacheFile = new File(root, ".javaeasyscan/" + ScanState.CACHE_FILE);
+        state.save(cacheFile);
+
+        assertNotNull(ScanState.load(cacheFile, fingerprint, root).get(filePath));
+        ScanState dropped = ScanState.load(cacheFile, ScanState.fingerprint(Collections.singletonList(CommandInjectScan.class)), root);
+        assertTrue(dropped.getFiles().isEmpty());
+
+        // 损坏的缓存也当没有缓存
+        Files.write(cacheFile.toPath(), Arrays.copyOf(Files.readAllBytes(cacheFile.toPath()), 20));
+        assertTrue(ScanState.load(cacheFile, fingerprint, root).getFiles().isEmpty());
+    }
+
+    @Test
+    public void cacheWrittenUnderAnotherRootIsReadRelativeToTheNewRoot() throws Exception {
+        File first = folder.newFolder("agent1");
+        write(first, "Cmd.java", "public class Cmd {\n    public void run(String input) throws Exception {\n        Runtime.getRuntime().exec(input);\n    }\n}\n");
+        write(first, "Caller.java", "public class Caller {\n    private Cmd cmd;\n\n    public void call(String input) throws Exception {\n        cmd.run(input);\n    }\n}\n");
+        File firstCache = new File(first, ".javaeasyscan/" + ScanState.CACHE_FILE);
+        String fingerprint = ScanEngine.scan(ProjectIndex.build(first), Main.JAVA_DETECTORS, firstCache).getState().getFingerprint();
+        ScanState loaded = ScanState.load(firstCache, fingerprint, first);
+        assertEquals(2, loaded.getFiles().size());
+        assertFalse(loaded.isRelocated());
+
+        // 另一台机器上检出到别的目录，缓存作为构建产物带过去
+        File second = folder.newFolder("agent2");
+        for (String name : new String[]{"src/main/java/demo/Cmd.java", "src/main/java/demo/Caller.java", ".javaeasyscan/" + ScanState.CACHE_FILE}) {
+            File target = new File(second, name);
+            target.getParentFile().mkdirs();
+            Files.copy(new File(first, name).toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        File secondCache = new File(second, ".javaeasyscan/" + ScanState.CACHE_FILE);
+        ScanState relocated = ScanState.load(secondCache, fingerprint, second);
+        assertTrue(relocated.isRelocated());
+        assertNotNull(relocated.get(new File(second, "src/main/java/demo/Cmd.java").getAbsolutePath()));
+        ScanEngine.ScanResult result = ScanEngine.scan(ProjectIndex.build(second), Main.JAVA_DETECTORS, secondCache);
+        List<Finding> findings = result.getState().get(new File(second, "src/main/java/demo/Cmd.java").getAbsolutePath()).findings;
+        assertEquals(1, findings.size());
+        assertEquals(1, findings.get(0).callChain.size());
+        assertEquals(new File(second, "src/main/java/demo/Caller.java").getAbsolutePath(), findings.get(0).callChain.get(0).filePath);
+        assertTrue(result.getState().get(new File(second, "src/main/java/demo/Cmd.java").getAbsolutePath()).reused);
+    }
+
+    @Test
+    public void reusingASummaryLeavesThePreviousStateUntouched() throws Exception {
+        File root = folder.newFolder("project");
+        File cmd = write(root, "Cmd.java", "public class Cmd {\n    public void run(String input) throws Exception {\n        Runtime.getRuntime().exec(input);\n    }\n}\n");
+        ScanState first = ScanEngine.rescan(ProjectIndex.build(root), Main.JAVA_DETECTORS, null).getState();
+        ScanState second = ScanEngine.rescan(ProjectIndex.build(root), Main.JAVA_DETECTORS, first).getState();
+
+        ScanState.FileSummary parsed = first.get(cmd.getAbsolutePath());
+        ScanState.FileSummary reused = second.get(cmd.getAbsolutePath());
+        assertFalse(parsed.reused);
+        assertTrue(reused.reused);
+        assertNotSame(parsed, reused);
+        assertEquals(parsed.hash, reused.hash);
+        assertSame(parsed.findings, reused.findings);
+    }
+
+    private static File write(File root, String name, String content) throws IOException {
+        File file = new File(root, "src/main/java/demo/" + name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), ("package demo;\n\n" + content).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
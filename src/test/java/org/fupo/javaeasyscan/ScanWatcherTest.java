@@ -0,0 +1,111 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe --watch的标准输出：启动扫描加一次改动后的重扫，输出的每一行都必须是一条合法的JSON结果变化
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 11:20 2024/7/2
+ **/
+public class ScanWatcherTest {
+    private static final long TIMEOUT_MS = 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyStdoutLineOfAWatchCycleIsJson() throws Exception {
+        File root = folder.newFolder("project");
+        write(root, "src/main/java/demo/Cmd.java", "Runtime.getRuntime().exec(input);");
+        // 没有Mapper XML，MyBatis模块每次都是"没有结果"，以前会往标准输出打提示
+        write(root, "pom.xml", "<project><artifactId>demo</artifactId></project>");
+
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true, "UTF-8"));
+        Thread watcher = new Thread(() -> {
+            try {
+                Main.main(new String[]{root.getPath(), "--watch"});
+            } catch (Exception e) {
+                // 测试结束时中断，正常退出
+            }
+        }, "watch-test");
+        watcher.setDaemon(true);
+        String output;
+        try {
+            watcher.start();
+            waitForOutput(captured, "\"change\":\"added\"", 1);
+            // 改一行命令执行：旧结果removed，新结果added
+            write(root, "src/main/java/demo/Cmd.java", "Runtime.getRuntime().exec(\"sh -c \" + input);");
+            waitForOutput(captured, "\"change\":\"added\"", 2);
+        } finally {
+            watcher.interrupt();
+            System.setOut(originalOut);
+        }
+        output = new String(captured.toByteArray(), StandardCharsets.UTF_8);
+
+        int added = 0;
+        int removed = 0;
+        for (String line : output.split("\n", -1)) {
+            if (line.isEmpty()) {
+                // 只允许最后一行换行后的空串
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> record = (Map<String, Object>) Json.parse(line);
+            assertTrue(line, Arrays.asList("added", "removed").contains(record.get("change")));
+            assertTrue(line, record.get("finding") instanceof Map);
+            if ("added".equals(record.get("change"))) {
+                added++;
+            } else {
+                removed++;
+            }
+        }
+        assertFalse("blank lines in stream:\n" + output, output.contains("\n\n") || output.startsWith("\n"));
+        assertEquals(2, added);
+        assertEquals(1, removed);
+    }
+
+    private static File write(File root, String path, String statement) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        String content = path.endsWith(".java")
+                ? "package demo;\n\npublic class Cmd {\n    public void run(String input) throws Exception {\n        " + statement + "\n    }\n}\n"
+                : statement + "\n";
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // 等到输出里text出现count次
+    private static void waitForOutput(ByteArrayOutputStream captured, String text, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (occurrences(new String(captured.toByteArray(), StandardCharsets.UTF_8), text) < count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("timed out waiting for " + text + ", output so far:\n" + new String(captured.toByteArray(), StandardCharsets.UTF_8));
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static int occurrences(String output, String text) {
+        int count = 0;
+        for (int pos = output.indexOf(text); pos >= 0; pos = output.indexOf(text, pos + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
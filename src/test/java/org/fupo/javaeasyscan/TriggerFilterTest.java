@@ -0,0 +1,54 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe 预筛的多模式匹配：触发词互为前缀、后缀、出现在别的词中间时都要找到，非ASCII内容不能干扰匹配
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 16:30 2024/7/2
+ **/
+public class TriggerFilterTest {
+
+    @Test
+    public void findsTokensAnywhereInContent() {
+        TriggerFilter filter = TriggerFilter.forTokens(Arrays.asList("exec", "ProcessBuilder", "parseObject"));
+        assertTrue(filter.matches("Runtime.getRuntime().exec(cmd);"));
+        assertTrue(filter.matches("new ProcessBuilder(cmd)"));
+        assertTrue(filter.matches("JSON.parseObject(body)"));
+        // 在标识符中间也算，宁可多解析
+        assertTrue(filter.matches("executor.submit(task)"));
+        assertTrue(filter.matches("exec"));
+        assertFalse(filter.matches("public class Helper { int size() { return 0; } }"));
+        assertFalse(filter.matches(""));
+    }
+
+    @Test
+    public void followsFailureLinksBetweenOverlappingTokens() {
+        // "ushe"走到"she"的失败跳转，"hers"要从"he"继续
+        TriggerFilter filter = TriggerFilter.forTokens(Arrays.asList("he", "she", "his", "hers"));
+        assertTrue(filter.matches("ushers"));
+        assertTrue(filter.matches("xxhixxhis"));
+        assertFalse(filter.matches("hi sh hx"));
+
+        TriggerFilter nested = TriggerFilter.forTokens(Arrays.asList("queryForList", "ryFo"));
+        assertTrue(nested.matches("queryFoo"));
+        TriggerFilter longOnly = TriggerFilter.forTokens(Collections.singletonList("aab"));
+        assertTrue(longOnly.matches("aaab"));
+        assertFalse(longOnly.matches("abab"));
+    }
+
+    @Test
+    public void ignoresNonAsciiCharacters() {
+        TriggerFilter filter = TriggerFilter.forTokens(Collections.singletonList("exec"));
+        assertTrue(filter.matches("// 执行命令\nRuntime.getRuntime().exec(\"命令\");"));
+        // 非ASCII字符打断了触发词
+        assertFalse(filter.matches("ex中ec"));
+        assertFalse(filter.matches("éxec Āƀ"));
+    }
+}
@@ -0,0 +1,74 @@
+package org.fupo.javaeasyscan;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Describe 常驻进程的增量扫描：索引和符号解析跨扫描复用，文件改过之后解析结果要跟着变
+ * @Author novy
+ * @Version 1.0
+ * @CreateDate 10:30 2024/7/3
+ **/
+public class WarmScannerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void symbolResolutionFollowsChangedFiles() throws Exception {
+        File root = folder.newFolder("project");
+        write(root, "Launcher.java", "public class Launcher {\n    public ProcessBuilder builder(String command) {\n        return new ProcessBuilder(command);\n    }\n}\n");
+        write(root, "Cmd.java", "public class Cmd {\n    private Launcher launcher;\n\n    public void run(String input) throws Exception {\n        launcher.builder(input).start();\n    }\n}\n");
+
+        WarmScanner scanner = new WarmScanner(false);
+        WarmScanner.Result first = scanner.scan(root, false);
+        assertTrue(first.full);
+        assertEquals(1, first.findings.size());
+
+        // builder()改成返回Thread，start()不再是ProcessBuilder.start
+        write(root, "Launcher.java", "public class Launcher {\n    public Thread builder(String command) {\n        return new Thread(command);\n    }\n}\n");
+        write(root, "Cmd.java", "public class Cmd {\n    private Launcher launcher;\n\n    public void run(String input) throws Exception {\n        // thread\n        launcher.builder(input).start();\n    }\n}\n");
+        WarmScanner.Result second = scanner.scan(root, false);
+        assertFalse(second.full);
+        // Launcher没有触发词只预筛，解析器里它的旧声明要靠失效清掉
+        assertEquals(1, second.parsedFiles);
+        assertTrue(second.findings.isEmpty());
+
+        // 再改回来，同一个索引上又能解析到ProcessBuilder.start
+        write(root, "Launcher.java", "public class Launcher {\n    public ProcessBuilder builder(String command) {\n        return new ProcessBuilder(command);\n    }\n}\n");
+        write(root, "Cmd.java", "public class Cmd {\n    private Launcher launcher;\n\n    public void run(String input) throws Exception {\n        // process\n        launcher.builder(input).start();\n    }\n}\n");
+        assertEquals(1, scanner.scan(root, false).findings.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyScannedWorkspace() throws Exception {
+        File a = folder.newFolder("a");
+        File b = folder.newFolder("b");
+        write(a, "Cmd.java", "public class Cmd {\n    public void run(String input) throws Exception {\n        Runtime.getRuntime().exec(input);\n    }\n}\n");
+        write(b, "Cmd.java", "public class Cmd {\n    public void run(String input) throws Exception {\n        Runtime.getRuntime().exec(input);\n    }\n}\n");
+
+        WarmScanner scanner = new WarmScanner(false, 1);
+        assertTrue(scanner.scan(a, false).full);
+        assertFalse(scanner.scan(a, false).full);
+        // 只留一个项目，扫b时a的索引和状态被丢掉，再扫a要重新全量扫描
+        assertTrue(scanner.scan(b, false).full);
+        WarmScanner.Result again = scanner.scan(a, false);
+        assertTrue(again.full);
+        assertEquals(1, again.findings.size());
+        // 每次扫描前清空统计，只剩这一次的
+        assertEquals(1, ScanMetrics.getCount("findings.CommandInjectDetector"));
+    }
+
+    private static void write(File root, String name, String content) throws IOException {
+        File file = new File(root, "src/main/java/demo/" + name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), ("package demo;\n\n" + content).getBytes(StandardCharsets.UTF_8));
+    }
+}